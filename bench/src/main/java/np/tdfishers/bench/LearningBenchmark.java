@@ -0,0 +1,85 @@
+package np.tdfishers.bench;
+
+import ec.util.MersenneTwisterFast;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import np.tdfishers.learning.DenseQTable;
+import np.tdfishers.learning.IndexedLearning;
+import np.tdfishers.learning.Learning;
+import np.tdfishers.learning.QTable;
+import np.tdfishers.learning.SharedQTable;
+import np.tdfishers.learning.SparseQTable;
+import org.openjdk.jmh.annotations.*;
+
+/**
+  Measures the cost of the learning algorithm itself, on a synthetic problem
+  with as many states as fishers have on a `gridWidth` by `gridHeight` ocean
+  and nine actions that hop to a pseudo-random state and return a constant
+  reward. `generic` is the Map-based `Learning`; the other table types run
+  through `IndexedLearning`.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LearningBenchmark {
+
+  @Param({ "25", "200" })
+  public int gridWidth;
+
+  @Param({ "25", "200" })
+  public int gridHeight;
+
+  @Param({ "generic", "dense", "sparse", "shared" })
+  public String table;
+
+  private int numStates;
+  private int state;
+  private Integer[] boxedStates; // so that the generic version doesn't pay for boxing
+  private Learning<Integer> generic;
+  private IndexedLearning indexed;
+
+  /** A cheap pseudo-random walk through the state space */
+  private double hop(int action) {
+    state = (int) ((state * 31L + action * 7919L + 1) % numStates);
+    return -0.1;
+  }
+
+  @Setup
+  public void setup() {
+    numStates = gridWidth * gridHeight * 2;
+    List<DoubleSupplier> actions = IntStream.range(0, 9)
+      .mapToObj(a -> (DoubleSupplier) () -> hop(a))
+      .collect(Collectors.toList());
+    MersenneTwisterFast rng = new MersenneTwisterFast(42);
+    if (table.equals("generic")) {
+      boxedStates = IntStream.range(0, numStates).boxed().toArray(Integer[]::new);
+      generic = new Learning<>(
+        java.util.Arrays.asList(boxedStates), actions, () -> boxedStates[state],
+        0.1, 0.1, 1.0, rng);
+    } else {
+      QTable qTable =
+        table.equals("dense") ? new DenseQTable(numStates, 9) :
+        table.equals("sparse") ? new SparseQTable(numStates, 9) :
+        new SharedQTable(numStates, 9);
+      indexed = new IndexedLearning(qTable, actions, () -> state, 0.1, 0.1, 1.0, rng);
+    }
+  }
+
+  @Benchmark
+  public void act() {
+    if (generic != null) generic.act(); else indexed.act();
+  }
+
+  @Benchmark
+  public Object bestAction() {
+    state = (state + 1) % numStates;
+    return generic != null ? generic.bestAction(boxedStates[state]) : (Object) indexed.bestAction(state);
+  }
+
+}
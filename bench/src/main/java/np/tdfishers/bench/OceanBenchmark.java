@@ -0,0 +1,101 @@
+package np.tdfishers.bench;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import np.tdfishers.model.Diffuser;
+import np.tdfishers.model.Ocean;
+import np.tdfishers.model.TDFishers;
+import org.openjdk.jmh.annotations.*;
+
+/**
+  Measures the cost of one pass of each of the ocean's processes, for
+  different ocean sizes: the legacy in-place diffusion (on a matrix, as
+  `Diffuser` does it, and on the `Ocean`), synchronous
+  diffusion (sequential and parallel), logistic growth, and growth fused
+  with diffusion.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OceanBenchmark {
+
+  @Param({ "25", "200", "1000" })
+  public int gridWidth;
+
+  @Param({ "25", "200", "1000" })
+  public int gridHeight;
+
+  @Param({ "false", "true" })
+  public boolean offHeapOcean;
+
+  private TDFishers tdf;
+  private double[][] field;
+  private ForkJoinPool pool;
+
+  @Setup
+  public void setup() {
+    tdf = new TDFishers(42);
+    tdf.setGridWidth(gridWidth);
+    tdf.setGridHeight(gridHeight);
+    tdf.setNumFishers(1);
+    tdf.setLazyQTables(true);
+    tdf.setOffHeapOcean(offHeapOcean);
+    tdf.start();
+    field = new double[gridWidth][gridHeight];
+    tdf.ocean.copyTo(field);
+    pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  }
+
+  @TearDown
+  public void tearDown() {
+    pool.shutdown();
+    tdf.finish();
+  }
+
+  @Benchmark
+  public double[][] legacyDiffuseAll() {
+    Diffuser.diffuseAll(tdf.getM(), field);
+    return field;
+  }
+
+  @Benchmark
+  public Ocean legacyDiffusion() {
+    tdf.ocean.diffuseSequentially(tdf.getM());
+    return tdf.ocean;
+  }
+
+  @Benchmark
+  public Ocean synchronousDiffusion() {
+    tdf.ocean.diffuse(tdf.getM(), null);
+    return tdf.ocean;
+  }
+
+  @Benchmark
+  public Ocean parallelDiffusion() {
+    tdf.ocean.diffuse(tdf.getM(), pool);
+    return tdf.ocean;
+  }
+
+  @Benchmark
+  public Ocean growth() {
+    tdf.ocean.grow(tdf.getR(), tdf.getK());
+    return tdf.ocean;
+  }
+
+  @Benchmark
+  public Ocean growthThenDiffusion() {
+    tdf.ocean.grow(tdf.getR(), tdf.getK());
+    tdf.ocean.diffuse(tdf.getM(), null);
+    return tdf.ocean;
+  }
+
+  @Benchmark
+  public Ocean fusedGrowthAndDiffusion() {
+    tdf.ocean.diffuse(tdf.getM(), true, tdf.getR(), tdf.getK(), null);
+    return tdf.ocean;
+  }
+
+}
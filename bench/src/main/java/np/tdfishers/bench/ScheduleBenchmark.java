@@ -0,0 +1,59 @@
+package np.tdfishers.bench;
+
+import java.util.concurrent.TimeUnit;
+import np.tdfishers.model.TDFishers;
+import org.openjdk.jmh.annotations.*;
+
+/**
+  Measures whole simulation steps, so the score is in steps per second.
+  Each trial starts from a fresh simulation that has been run for a day,
+  to get past the very first steps.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ScheduleBenchmark {
+
+  @Param({ "25", "100" })
+  public int gridWidth;
+
+  @Param({ "25", "100" })
+  public int gridHeight;
+
+  @Param({ "200", "2000" })
+  public int numFishers;
+
+  @Param({ "false", "true" })
+  public boolean parallelStepping;
+
+  @Param({ "false", "true" })
+  public boolean lazyQTables;
+
+  private TDFishers tdf;
+
+  @Setup
+  public void setup() {
+    tdf = new TDFishers(42);
+    tdf.setGridWidth(gridWidth);
+    tdf.setGridHeight(gridHeight);
+    tdf.setNumFishers(numFishers);
+    tdf.setParallelStepping(parallelStepping);
+    tdf.setLazyQTables(lazyQTables);
+    tdf.start();
+    for (int i = 0; i < TDFishers.DAY; i++) tdf.schedule.step(tdf);
+  }
+
+  @TearDown
+  public void tearDown() {
+    tdf.finish();
+  }
+
+  @Benchmark
+  public boolean step() {
+    return tdf.schedule.step(tdf);
+  }
+
+}
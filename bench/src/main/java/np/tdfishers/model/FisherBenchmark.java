@@ -0,0 +1,88 @@
+package np.tdfishers.model;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+  Measures the cost of a fisher's individual actions, and of a whole
+  learning step. This lives in the model's package so that it can call the
+  package-private `perform`, which `FleetStepper` uses to take actions.
+  `fleet` has every fisher take an action, cycling through all nine, which
+  is closer to what the dispatch sees in a real step than hammering the
+  same action of the same fisher.
+*/
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FisherBenchmark {
+
+  @Param({ "25", "200" })
+  public int gridWidth;
+
+  @Param({ "25", "200" })
+  public int gridHeight;
+
+  @Param({ "200", "2000" })
+  public int numFishers;
+
+  private static final int MOVE_LEFT = 3;
+  private static final int MOVE_RIGHT = 5;
+
+  private TDFishers tdf;
+  private Fisher fisher;
+  private int cell;
+  private boolean goingLeft;
+  private int round;
+
+  @Setup
+  public void setup() {
+    tdf = new TDFishers(42);
+    tdf.setGridWidth(gridWidth);
+    tdf.setGridHeight(gridHeight);
+    tdf.setNumFishers(numFishers);
+    tdf.setLazyQTables(true);
+    tdf.setHoldSize(Double.MAX_VALUE); // so that trawling always catches something
+    tdf.start();
+    fisher = tdf.fishers.get(0);
+    fisher.perform(MOVE_LEFT); // get out of port, so that staying put means trawling
+    cell = fisher.getCell();
+  }
+
+  @TearDown
+  public void tearDown() {
+    tdf.finish();
+  }
+
+  @Benchmark
+  public double trawl() {
+    tdf.ocean.set(cell, tdf.getK()); // don't let the cell get depleted
+    return fisher.perform(Fisher.STAY_PUT);
+  }
+
+  @Benchmark
+  public double move() {
+    goingLeft = !goingLeft; // back and forth, so as to stay away from the edges
+    return fisher.perform(goingLeft ? MOVE_LEFT : MOVE_RIGHT);
+  }
+
+  @Benchmark
+  public double fleet() {
+    double rewards = 0.0;
+    int action = round++;
+    for (Fisher f : tdf.fishers) {
+      // over nine rounds, the moves of each fisher add up to nothing
+      rewards += f.perform(action % Fisher.NUM_ACTIONS);
+      action++;
+    }
+    return rewards;
+  }
+
+  @Benchmark
+  public void step() {
+    fisher.step(tdf);
+  }
+
+}
@@ -0,0 +1,150 @@
+package np.tdfishers.gui;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import javax.swing.JComponent;
+import np.tdfishers.model.Fleet;
+import np.tdfishers.model.Ocean;
+import np.tdfishers.model.TDFishers;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+  A cheaper way of looking at the simulation than MASON's portrayals, for
+  big oceans and big fleets. Instead of drawing each cell and each fisher
+  with Java2D on every step, this takes a snapshot of the ocean a few times
+  per second: each cell gets a colour from its biomass (white when empty, red
+  when full), darkened according to the number of fishers in it (as if each
+  of them was a half-transparent black circle), and the port is green.
+
+  The snapshot is taken on the simulation thread, in a single pass over the
+  fleet (to count fishers per cell) and a single pass over the cells, and
+  then handed over to the event dispatch thread, which copies it into a
+  `BufferedImage` and paints that, scaled to the size of the component. The
+  simulation never waits for painting, and the cost of a frame only depends
+  on the size of the ocean.
+*/
+public class SnapshotView extends JComponent implements Steppable {
+
+  private static final Color EMPTY = Color.white;
+  private static final Color FULL = new Color(200, 0, 0);
+  private static final int PORT = Color.green.getRGB();
+  private static final int FISHER_ALPHA = 50; // out of 255, like the fishers' ovals
+  private static final int LEVELS = 256;
+
+  // ocean colours for `LEVELS` biomass levels, from empty to full
+  private static final int[] OCEAN_COLORS = new int[LEVELS];
+  // how much of a cell's colour is left when n fishers are in it, out of 256
+  private static final int[] SHADES = new int[LEVELS];
+  static {
+    for (int i = 0; i < LEVELS; i++) {
+      double f = i / (LEVELS - 1.0);
+      int r = (int) Math.round(EMPTY.getRed() + f * (FULL.getRed() - EMPTY.getRed()));
+      int g = (int) Math.round(EMPTY.getGreen() + f * (FULL.getGreen() - EMPTY.getGreen()));
+      int b = (int) Math.round(EMPTY.getBlue() + f * (FULL.getBlue() - EMPTY.getBlue()));
+      OCEAN_COLORS[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+      SHADES[i] = (int) Math.round(256 * Math.pow(1.0 - FISHER_ALPHA / 255.0, i));
+    }
+  }
+
+  private final long nanosPerFrame;
+  private long lastFrame;
+
+  // The simulation thread draws in `back`, then swaps it with `front`, from
+  // which the event dispatch thread copies to `image`. Swapping and copying
+  // are done holding the lock.
+  private final Object lock = new Object();
+  private int width;
+  private int height;
+  private int[] back;
+  private int[] front;
+  private int[] fishersPerCell;
+  private boolean fresh = false; // whether `front` has been drawn since it was last copied
+  private BufferedImage image;  // only touched by the event dispatch thread
+
+  /** @param framesPerSecond How often to take a snapshot while the simulation runs. */
+  public SnapshotView(double framesPerSecond) {
+    if (!(framesPerSecond > 0.0))
+      throw new IllegalArgumentException("Need a positive frame rate, not " + framesPerSecond);
+    nanosPerFrame = (long) (1e9 / framesPerSecond);
+    setBackground(Color.white);
+    setOpaque(true);
+  }
+
+  /** Takes a snapshot if it's been long enough since the last one */
+  public void step(SimState state) {
+    long now = System.nanoTime();
+    if (now - lastFrame < nanosPerFrame) return;
+    lastFrame = now;
+    snapshot((TDFishers) state);
+  }
+
+  /** Takes a snapshot of the simulation, to be painted as soon as Swing gets to it */
+  public void snapshot(TDFishers tdf) {
+    Ocean ocean = tdf.ocean;
+    int w = ocean.getWidth();
+    int h = ocean.getHeight();
+    if (back == null || w != width || h != height) {
+      synchronized (lock) {
+        width = w;
+        height = h;
+        back = new int[w * h];
+        front = new int[w * h];
+        fishersPerCell = new int[w * h];
+      }
+    }
+
+    Fleet fleet = tdf.fleet;
+    for (int id = 0; id < fleet.size(); id++)
+      fishersPerCell[ocean.index(fleet.getX(id), fleet.getY(id))]++;
+
+    double levelsPerFish = (LEVELS - 1) / tdf.getK();
+    for (int i = 0; i < back.length; i++) {
+      int level = (int) (ocean.get(i) * levelsPerFish);
+      int color = OCEAN_COLORS[Math.max(0, Math.min(LEVELS - 1, level))];
+      int n = fishersPerCell[i];
+      if (n > 0) color = shade(color, SHADES[Math.min(LEVELS - 1, n)]);
+      back[i] = color;
+      fishersPerCell[i] = 0;
+    }
+    back[ocean.index(tdf.portLocation.x, tdf.portLocation.y)] = PORT;
+
+    synchronized (lock) {
+      int[] drawn = back;
+      back = front;
+      front = drawn;
+      fresh = true;
+    }
+    repaint(); // safe from any thread: it only asks Swing to paint later
+  }
+
+  private static int shade(int color, int shade) {
+    int r = ((color >> 16) & 0xFF) * shade >> 8;
+    int g = ((color >> 8) & 0xFF) * shade >> 8;
+    int b = (color & 0xFF) * shade >> 8;
+    return 0xFF000000 | (r << 16) | (g << 8) | b;
+  }
+
+  protected void paintComponent(Graphics g) {
+    g.setColor(getBackground());
+    g.fillRect(0, 0, getWidth(), getHeight());
+    synchronized (lock) {
+      if (front == null) return;
+      boolean resized = image == null || image.getWidth() != width || image.getHeight() != height;
+      if (resized) image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+      if (fresh || resized) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(front, 0, pixels, 0, front.length);
+        fresh = false;
+      }
+    }
+    // scale the snapshot to fit, keeping cells square
+    double scale = Math.min(getWidth() / (double) image.getWidth(), getHeight() / (double) image.getHeight());
+    int w = (int) (image.getWidth() * scale);
+    int h = (int) (image.getHeight() * scale);
+    g.drawImage(image, (getWidth() - w) / 2, (getHeight() - h) / 2, w, h, null);
+  }
+
+}
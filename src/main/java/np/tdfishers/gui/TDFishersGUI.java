@@ -1,8 +1,13 @@
 package np.tdfishers.gui;
 
 import java.awt.Color;
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import javax.swing.*;
 import np.tdfishers.model.TDFishers;
+import np.tdfishers.observation.TrajectoryReader;
 import sim.display.*;
 import sim.engine.*;
 import sim.field.grid.SparseGrid2D;
@@ -21,26 +26,93 @@ public class TDFishersGUI extends GUIState {
       // handle exception
       System.err.println("Couldn't load the system look and feel.");
     }
+    // `-fps N` swaps the portrayals for snapshots taken N times per second,
+    // which keeps big simulations running at full speed, and `-replay FILE`
+    // shows a recorded trajectory instead of running the simulation
+    for (int i = 0; i + 1 < args.length; i++) {
+      if (args[i].equals("-fps")) defaultFramesPerSecond = Double.parseDouble(args[i + 1]);
+      if (args[i].equals("-replay")) defaultReplayFile = args[i + 1];
+    }
     TDFishersGUI gui = new TDFishersGUI();
     Console c = new Console(gui);
     c.setVisible(true);
   }
-  public TDFishersGUI() { super(new TDFishers(System.currentTimeMillis())); }
-  public TDFishersGUI(SimState state) { super(state); }
+
+  // the frame rate (0 for portrayals) and trajectory (null for none) used
+  // by the constructors that don't take them
+  private static double defaultFramesPerSecond = 0.0;
+  private static String defaultReplayFile = null;
+
+  public TDFishersGUI() { this(new TDFishers(System.currentTimeMillis())); }
+  public TDFishersGUI(SimState state) { this(state, defaultFramesPerSecond); }
+
+  /**
+    With a frame rate above 0, the simulation is shown by a `SnapshotView`
+    taking that many snapshots per second instead of being drawn by MASON's
+    portrayals at every step.
+  */
+  public TDFishersGUI(SimState state, double framesPerSecond) {
+    this(state, framesPerSecond, defaultReplayFile);
+  }
+
+  /**
+    With a trajectory file (see `TrajectoryRecorder`), what's shown is that
+    trajectory being replayed, instead of the simulation being run.
+  */
+  public TDFishersGUI(SimState state, double framesPerSecond, String replayFile) {
+    super(state);
+    this.framesPerSecond = framesPerSecond;
+    this.replayFile = replayFile;
+  }
   public static String getName() { return "Temporal-difference-learning fishers"; }
   public Object getSimulationInspectedObject() { return state; }
 
+  private final double framesPerSecond;
+  private final String replayFile;
+  private TrajectoryReader replay; // the trajectory being replayed, if any
   public Display2D display;
+  public SnapshotView snapshotView; // instead of `display`, when taking snapshots
   public JFrame displayFrame;
   FastValueGridPortrayal2D oceanPortrayal = new FastValueGridPortrayal2D();
   SparseGridPortrayal2D portPortrayal = new SparseGridPortrayal2D();
   SparseGridPortrayal2D fishersPortrayal = new SparseGridPortrayal2D();
 
   public void start() {
-    super.start();
+    if (replayFile == null) super.start();
+    else startReplay();
     setupPortrayals();
   }
 
+  private void startReplay() {
+    TDFishers tdf = (TDFishers) state;
+    closeReplay();
+    try {
+      replay = new TrajectoryReader(Paths.get(replayFile));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    replay.configure(tdf);
+    super.start();
+    // the recorded steps take the place of the simulation's own processes
+    tdf.schedule.clear();
+    tdf.schedule.scheduleRepeating(Schedule.EPOCH, 0, replay, 1.0);
+  }
+
+  private void closeReplay() {
+    if (replay == null) return;
+    try {
+      replay.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    replay = null;
+  }
+
+  public void finish() {
+    super.finish();
+    closeReplay();
+  }
+
   public void load(SimState state) {
     super.load(state);
     setupPortrayals();
@@ -48,6 +120,12 @@ public class TDFishersGUI extends GUIState {
 
   public void setupPortrayals() {
     TDFishers tdf = (TDFishers) state;
+    if (snapshotView != null) {
+      // no portrayals to feed: the view looks at the ocean and fleet directly
+      snapshotView.snapshot(tdf);
+      scheduleRepeatingImmediatelyAfter(snapshotView);
+      return;
+    }
     // tell the portrayals what to portray and how to portray them
     oceanPortrayal.setField(tdf.oceanGrid);
     oceanPortrayal.setMap(new SimpleColorMap(0.0, tdf.getK(), Color.white, new Color(200, 0, 0)));
@@ -65,6 +143,15 @@ public class TDFishersGUI extends GUIState {
     portGrid.setObjectLocation(new RectanglePortrayal2D(Color.green), new Int2D(tdf.portLocation));
     portPortrayal.setField(portGrid);
 
+    // keep the portrayable copies of the ocean and fleet up to date (this
+    // needs to be scheduled before the displayer so it gets done before drawing)
+    tdf.syncOceanGrid();
+    tdf.syncFishersGrid();
+    scheduleRepeatingImmediatelyAfter(s -> {
+      ((TDFishers) s).syncOceanGrid();
+      ((TDFishers) s).syncFishersGrid();
+    });
+
     // reschedule the displayer
     display.reset();
     display.setBackdrop(Color.white);
@@ -74,6 +161,16 @@ public class TDFishersGUI extends GUIState {
 
   public void init(Controller c) {
     super.init(c);
+    if (framesPerSecond > 0.0) {
+      snapshotView = new SnapshotView(framesPerSecond);
+      snapshotView.setPreferredSize(new Dimension(600, 600));
+      displayFrame = new JFrame("TDFishers Display");
+      displayFrame.getContentPane().add(snapshotView);
+      displayFrame.pack();
+      c.registerFrame(displayFrame);
+      displayFrame.setVisible(true);
+      return;
+    }
     display = new Display2D(600,600,this);
     display.setClipping(false);
     displayFrame = display.createFrame();
@@ -91,6 +188,7 @@ public class TDFishersGUI extends GUIState {
     if (displayFrame != null) displayFrame.dispose();
     displayFrame = null;
     display = null;
+    snapshotView = null;
   }
 
 }
@@ -0,0 +1,44 @@
+package np.tdfishers.learning;
+
+/**
+  Keeps track of how much a learner is still learning, through two
+  exponentially weighted moving averages, updated at every step:
+
+  - the magnitude of the temporal-difference errors, which gets small when
+    action values stop being surprised by what happens;
+  - the rate at which updates change the greedy action of the state they
+    update, which gets small when the policy stops changing.
+
+  This costs a few operations per step, and never looks at the whole table.
+  The averages are over roughly the last `horizon` steps, and are NaN until
+  the first step has been recorded.
+*/
+public class ConvergenceStats {
+
+  private final double weight; // the weight of the newest value in the averages
+  private double tdError = Double.NaN;
+  private double policyChangeRate = Double.NaN;
+
+  public ConvergenceStats(int horizon) {
+    if (horizon < 1) throw new IllegalArgumentException("The horizon must be at least 1 step");
+    weight = 1.0 / horizon;
+  }
+
+  public void record(double tdError, boolean policyChanged) {
+    double change = policyChanged ? 1.0 : 0.0;
+    if (Double.isNaN(this.tdError)) {
+      this.tdError = Math.abs(tdError);
+      policyChangeRate = change;
+    } else {
+      this.tdError += weight * (Math.abs(tdError) - this.tdError);
+      policyChangeRate += weight * (change - policyChangeRate);
+    }
+  }
+
+  /** The average magnitude of recent temporal-difference errors */
+  public double getTdError() { return tdError; }
+
+  /** The fraction of recent updates that changed the greedy action of a state */
+  public double getPolicyChangeRate() { return policyChangeRate; }
+
+}
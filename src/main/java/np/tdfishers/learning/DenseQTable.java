@@ -0,0 +1,67 @@
+package np.tdfishers.learning;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+  A Q-table that keeps every action value in a single flat array, with
+  all the actions of a state stored next to each other. This is as compact
+  and as fast as it gets, but memory is allocated for every possible state
+  up front, whether or not it ever gets visited.
+*/
+public class DenseQTable implements QTable {
+
+  private final int numStates;
+  private final int numActions;
+  private final double[] values;
+
+  public DenseQTable(int numStates, int numActions, double initialValue) {
+    this.numStates = numStates;
+    this.numActions = numActions;
+    values = new double[numStates * numActions];
+    Arrays.fill(values, initialValue);
+  }
+
+  public DenseQTable(int numStates, int numActions) {
+    this(numStates, numActions, 0.0);
+  }
+
+  public int getNumStates() { return numStates; }
+
+  public int getNumActions() { return numActions; }
+
+  public int getRowsAllocated() { return numStates; }
+
+  public double get(int state, int action) {
+    return values[state * numActions + action];
+  }
+
+  public void set(int state, int action, double value) {
+    values[state * numActions + action] = value;
+  }
+
+  /** Copies all the values, state after state, in a buffer */
+  public void exportTo(DoubleBuffer buffer) {
+    buffer.put(values);
+  }
+
+  /** Replaces all the values by the ones read from a buffer, as written by `exportTo` */
+  public void importFrom(DoubleBuffer buffer) {
+    buffer.get(values);
+  }
+
+  @Override
+  public int bestAction(int state) {
+    int offset = state * numActions;
+    int best = 0;
+    double bestValue = values[offset];
+    for (int a = 1; a < numActions; a++) {
+      if (values[offset + a] > bestValue) {
+        best = a;
+        bestValue = values[offset + a];
+      }
+    }
+    return best;
+  }
+
+}
@@ -0,0 +1,110 @@
+package np.tdfishers.learning;
+
+/**
+  The eligibility traces of SARSA(lambda), kept sparsely. Instead of a
+  trace for every value in a table, we keep a ring of the last few steps:
+  for each one, the action taken and the features (or the single state)
+  it was taken in. The trace of a step decays by `decay` (that is, `gamma
+  * lambda`) at every step, so we only keep as many steps as it takes for
+  a trace to get below a cutoff, and an update costs the same whatever the
+  size of the table.
+
+  Traces can be accumulating (a value visited twice in the ring gets both
+  traces) or replacing (only its most recent visit counts, which keeps
+  loops from inflating its trace). Replacing is done by forgetting the
+  older visits of the same value when a step is recorded.
+*/
+public class EligibilityTraces {
+
+  /** The most steps for which we keep traces, however slowly they decay */
+  public static final int MAX_LENGTH = 256;
+
+  private static final int FORGOTTEN = -1;
+
+  private final double decay;
+  private final boolean replacing;
+  private final int[][] features; // the features of each step in the ring
+  private final int[] actions;    // the action of each step in the ring
+  private int size = 0;
+  private int head = 0;           // where the next step goes
+
+  /**
+    @param numFeatures The number of features recorded for each step (1 for a single state).
+    @param decay       The factor by which a trace decays at each step (`gamma * lambda`).
+    @param cutoff      The smallest trace worth keeping.
+    @param replacing   Whether a visit replaces the traces of earlier visits of the same value.
+  */
+  public EligibilityTraces(int numFeatures, double decay, double cutoff, boolean replacing) {
+    this.decay = decay;
+    this.replacing = replacing;
+    int length = length(decay, cutoff);
+    features = new int[length][numFeatures];
+    actions = new int[length];
+  }
+
+  /** The number of steps after which a trace decaying at that rate gets below the cutoff */
+  public static int length(double decay, double cutoff) {
+    if (decay <= 0.0 || cutoff >= 1.0) return 1;
+    if (decay >= 1.0 || cutoff <= 0.0) return MAX_LENGTH;
+    return (int) Math.min(MAX_LENGTH, 1 + Math.floor(Math.log(cutoff) / Math.log(decay)));
+  }
+
+  /** The number of steps that the ring can hold */
+  public int getLength() { return actions.length; }
+
+  /**
+    Makes room for a new step, which becomes the most recent one, and
+    returns the array in which its features should be written before
+    calling `visit`.
+  */
+  public int[] next() {
+    int[] f = features[head];
+    head = (head + 1) % actions.length;
+    size = Math.min(size + 1, actions.length);
+    return f;
+  }
+
+  /** Records the action taken in the most recent step */
+  public void visit(int action) {
+    int newest = index(0);
+    actions[newest] = action;
+    if (!replacing) return;
+    for (int f : features[newest])
+      for (int age = 1; age < size; age++) {
+        int i = index(age);
+        if (actions[i] != action) continue;
+        int[] older = features[i];
+        for (int j = 0; j < older.length; j++)
+          if (older[j] == f) older[j] = FORGOTTEN;
+      }
+  }
+
+  /** The features of the most recent step */
+  public int[] getFeatures() { return features[index(0)]; }
+
+  /** The action of the most recent step */
+  public int getAction() { return actions[index(0)]; }
+
+  /**
+    Adds `amount` to the values of the most recent step, and a decaying
+    fraction of it to those of the steps before.
+  */
+  public void apply(QTable table, double amount) {
+    for (int age = 0; age < size; age++) {
+      int i = index(age);
+      for (int f : features[i])
+        if (f != FORGOTTEN) table.add(f, actions[i], amount);
+      amount *= decay;
+    }
+  }
+
+  /** Forgets every step, e.g., at the end of an episode */
+  public void clear() {
+    size = 0;
+  }
+
+  private int index(int age) {
+    return (head + actions.length - 1 - age) % actions.length;
+  }
+
+}
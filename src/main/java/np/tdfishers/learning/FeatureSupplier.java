@@ -0,0 +1,14 @@
+package np.tdfishers.learning;
+
+/**
+  Describes the current state through a fixed number of active binary
+  features, identified by their index, in the manner of an `IntSupplier`
+  for a single state index. The indices are written in an array supplied
+  by the caller, so that nothing gets allocated.
+*/
+@FunctionalInterface
+public interface FeatureSupplier {
+
+  void getFeatures(int[] features);
+
+}
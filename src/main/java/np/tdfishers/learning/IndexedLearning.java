@@ -0,0 +1,205 @@
+package np.tdfishers.learning;
+
+import ec.util.MersenneTwisterFast;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.IntToDoubleFunction;
+
+/**
+  This is the same SARSA algorithm as in `Learning`, but working with
+  states and actions identified by their index instead of generic objects.
+  The current state is supplied as an int and the action values live in a
+  `QTable`, so a call to `act()` doesn't need to box, hash or allocate
+  anything.
+
+  Several learners can share the same `QTable`, in which case they all
+  learn from each other's experience.
+
+  The same assumptions as in `Learning` apply: the reward and the new state
+  must be observable right after taking an action, and every action must
+  be possible in every state.
+
+  With a `lambda` above 0, this becomes SARSA(lambda): the temporal
+  difference of each step also updates the values of the steps that led
+  there, to an extent that decays by `gamma * lambda` per step, so that a
+  reward that only comes at the end of a long trip gets credited to the
+  whole trip much sooner. The traces are kept in a bounded ring of recent
+  steps (see `EligibilityTraces`).
+*/
+public class IndexedLearning implements Learner {
+
+  private final IntToDoubleFunction perform;
+  private final int numActions;
+  private final double epsilon;
+  private final double alpha;
+  private final double gamma;
+  private final MersenneTwisterFast rng;
+  private final QTable qTable;
+  private final IntSupplier currentState;
+  private final EligibilityTraces traces; // null when lambda is 0
+  private ConvergenceStats convergenceStats; // null unless someone is watching
+
+  private int nextAction;
+  private boolean exploring = true; // whether `nextAction` was picked at random
+  private int state;     // the state in which `nextAction` was started
+  private int action;    // the action whose value is about to be updated...
+  private double target; // ...and the value it is moving towards
+  private double tdError; // ...or, with traces, by how much
+
+  public QTable getQTable() { return qTable; }
+
+  public MersenneTwisterFast getRng() { return rng; }
+
+  public ConvergenceStats getConvergenceStats() { return convergenceStats; }
+  public void setConvergenceStats(ConvergenceStats stats) { convergenceStats = stats; }
+
+  /** The index of the action that will be returned by the next `startAction()` */
+  public int getNextAction() { return nextAction; }
+  public void setNextAction(int action) { nextAction = action; }
+
+  public boolean isNextActionRandom() { return exploring; }
+
+  /** Returns a random action index, with no regard to the current state or action values */
+  public int randomAction() {
+    return rng.nextInt(numActions);
+  }
+
+  /** Returns the index of the best possible action in a state */
+  public int bestAction(int state) {
+    return qTable.bestAction(state);
+  }
+
+  /**
+    @param qTable       The table holding the action values.
+    @param actions      A list of actions, which are lambdas returning rewards.
+                        Their position in the list is their index in the table.
+    @param currentState A lambda returning the index of the current state.
+    @param epsilon      The exploration rate.
+    @param alpha        The learning rate.
+    @param gamma        The discount factor for future states.
+    @param rng          The random number generator.
+  */
+  public IndexedLearning(QTable qTable, List<DoubleSupplier> actions,
+    IntSupplier currentState, double epsilon, double alpha, double gamma,
+    MersenneTwisterFast rng) {
+    this(qTable, actions, currentState, epsilon, alpha, gamma, 0.0, 1.0, false, rng);
+  }
+
+  /**
+    @param lambda          The decay rate of eligibility traces.
+    @param traceCutoff     The smallest trace worth keeping.
+    @param replacingTraces Whether traces are replacing rather than accumulating.
+    (The other parameters are the same as above.)
+  */
+  public IndexedLearning(QTable qTable, List<DoubleSupplier> actions,
+    IntSupplier currentState, double epsilon, double alpha, double gamma,
+    double lambda, double traceCutoff, boolean replacingTraces,
+    MersenneTwisterFast rng) {
+    this(qTable, byIndex(actions, qTable), currentState, epsilon, alpha, gamma,
+      lambda, traceCutoff, replacingTraces, rng);
+  }
+
+  /**
+    @param perform A function taking the index of an action in the table,
+                   taking that action and returning its reward. Agents with
+                   many actions that only differ by a parameter can do that
+                   with a single method, rather than with a lambda per
+                   action (see `Fisher.perform`).
+    (The other parameters are the same as above.)
+  */
+  public IndexedLearning(QTable qTable, IntToDoubleFunction perform,
+    IntSupplier currentState, double epsilon, double alpha, double gamma,
+    double lambda, double traceCutoff, boolean replacingTraces,
+    MersenneTwisterFast rng) {
+    this.qTable = qTable;
+    this.perform = perform;
+    this.numActions = qTable.getNumActions();
+    this.currentState = currentState;
+    this.epsilon = epsilon;
+    this.alpha = alpha;
+    this.gamma = gamma;
+    this.rng = rng;
+    traces = lambda > 0.0 ?
+      new EligibilityTraces(1, gamma * lambda, traceCutoff, replacingTraces) : null;
+    nextAction = randomAction();
+  }
+
+  /** Turns a list of actions into a function performing them by index */
+  static IntToDoubleFunction byIndex(List<DoubleSupplier> actions, QTable qTable) {
+    if (actions.size() != qTable.getNumActions())
+      throw new IllegalArgumentException(
+        "Expected " + qTable.getNumActions() + " actions but got " + actions.size());
+    DoubleSupplier[] array = actions.toArray(new DoubleSupplier[0]);
+    return a -> array[a].getAsDouble();
+  }
+
+  /** The heart of the SARSA algorithm... */
+  public void act() {
+    int action = startAction();
+    finishAction(perform.applyAsDouble(action));
+  }
+
+  /**
+    The first half of `act()`: observes the current state and returns the
+    index of the action that should be taken, without taking it. This lets
+    a scheduler take the actions of many agents at once, resolve whatever
+    conflicts arise between them, and then hand each agent its reward
+    through `finishAction`.
+  */
+  public int startAction() {
+    state = currentState.getAsInt();
+    if (traces != null) {
+      traces.next()[0] = state;
+      traces.visit(nextAction);
+    }
+    return nextAction;
+  }
+
+  /**
+    The second half of `act()`: given the reward obtained for the action
+    returned by `startAction`, observes the new state, chooses the next
+    action and updates the action value.
+  */
+  public void finishAction(double reward) {
+    prepareUpdate(reward);
+    commitUpdate();
+  }
+
+  /**
+    Does everything `finishAction` does except writing to the Q-table.
+    Learners that share a table can all prepare their updates concurrently
+    and then commit them one by one, in a fixed order, so that results
+    don't depend on thread timing.
+  */
+  public void prepareUpdate(double reward) {
+    action = nextAction;
+    int nextState = currentState.getAsInt();
+    exploring = rng.nextDouble() < epsilon;
+    nextAction = exploring ?
+      randomAction() :       // explore...
+      bestAction(nextState); // ...or exploit
+    target = reward + gamma * qTable.get(nextState, nextAction);
+    if (traces != null) tdError = target - qTable.get(state, action);
+  }
+
+  /** Writes the update computed by `prepareUpdate` to the Q-table */
+  public void commitUpdate() {
+    if (convergenceStats == null) {
+      update();
+    } else {
+      int greedyAction = qTable.bestAction(state);
+      double error = traces == null ? target - qTable.get(state, action) : tdError;
+      update();
+      convergenceStats.record(error, qTable.bestAction(state) != greedyAction);
+    }
+  }
+
+  private void update() {
+    if (traces == null)
+      qTable.update(state, action, alpha, target);
+    else
+      traces.apply(qTable, alpha * tdError);
+  }
+
+}
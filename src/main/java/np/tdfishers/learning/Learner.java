@@ -0,0 +1,46 @@
+package np.tdfishers.learning;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+  What the fishers need from a learning algorithm. The actions are
+  numbered, and a learner always knows which one it will take next.
+
+  `act()` does a whole step, but it can also be split in two around the
+  taking of the action (`startAction` and `finishAction`), and the second
+  half can itself be split between computing the update and writing it
+  (`prepareUpdate` and `commitUpdate`), so that a scheduler can deal with
+  the actions and updates of many learners at once. See `IndexedLearning`
+  for the details.
+*/
+public interface Learner {
+
+  void act();
+
+  int startAction();
+
+  void finishAction(double reward);
+
+  void prepareUpdate(double reward);
+
+  void commitUpdate();
+
+  /** The table holding what the learner has learned */
+  QTable getQTable();
+
+  MersenneTwisterFast getRng();
+
+  int getNextAction();
+
+  void setNextAction(int action);
+
+  /** Whether the next action was picked at random (exploring) rather than greedily */
+  boolean isNextActionRandom();
+
+  /** The learner's convergence statistics, or null if they aren't being kept */
+  ConvergenceStats getConvergenceStats();
+
+  /** Starts (or, with null, stops) keeping convergence statistics */
+  void setConvergenceStats(ConvergenceStats stats);
+
+}
@@ -7,9 +7,7 @@ import java.util.function.Supplier;
 import java.util.List;
 import java.util.Map;
 
-import static java.util.Collections.max;
 import static java.util.function.Function.identity;
-import static java.util.Map.Entry.comparingByValue;
 import static java.util.stream.Collectors.toMap;
 
 /**
@@ -30,6 +28,10 @@ import static java.util.stream.Collectors.toMap;
 
   We also assume that every action is possible in every state, which is the
   case for our particular problem, but wouldn't always be in general.
+
+  This generic version is the easiest to use, but it boxes every action value
+  in nested hash maps. When states can be numbered, `IndexedLearning` runs
+  the same algorithm on a much more compact `QTable`.
 */
 public class Learning<S> {
 
@@ -43,7 +45,7 @@ public class Learning<S> {
   private final Map<S, Map<DoubleSupplier, Double>> qTable;
 
   /** Convenience method to get an action value */
-  private double q(S state, DoubleSupplier action) {
+  double q(S state, DoubleSupplier action) {
     return qTable.get(state).get(action);
   };
 
@@ -57,10 +59,21 @@ public class Learning<S> {
 
   /**
     Returns the best possible action in a state according
-    to the values stored in the qTable.
+    to the values stored in the qTable. Ties are broken in favour of the
+    action that comes first in the list, so that runs are reproducible.
   */
   public DoubleSupplier bestAction(S state) {
-    return max(qTable.get(state).entrySet(), comparingByValue()).getKey();
+    Map<DoubleSupplier, Double> values = qTable.get(state);
+    DoubleSupplier best = actions.get(0);
+    double bestValue = values.get(best);
+    for (DoubleSupplier action : actions) {
+      double value = values.get(action);
+      if (value > bestValue) {
+        best = action;
+        bestValue = value;
+      }
+    }
+    return best;
   }
 
   /**
@@ -0,0 +1,61 @@
+package np.tdfishers.learning;
+
+/**
+  A table of action values, indexed by primitive state and action numbers.
+
+  Going through ints instead of generic state objects and action lambdas
+  means that implementations are free to store their values in flat
+  primitive arrays: no boxing, no hashing, and no allocation when looking
+  up or updating a value.
+*/
+public interface QTable {
+
+  int getNumStates();
+
+  int getNumActions();
+
+  /** The number of states for which memory has actually been allocated */
+  int getRowsAllocated();
+
+  double get(int state, int action);
+
+  void set(int state, int action, double value);
+
+  /**
+    Moves an action value a fraction `rate` of the way towards a target,
+    which is the basic temporal-difference update. Tables that can be shared
+    between threads override this to make it atomic.
+  */
+  default void update(int state, int action, double rate, double target) {
+    double q = get(state, action);
+    set(state, action, q + rate * (target - q));
+  }
+
+  /**
+    Adds an amount to an action value. Learners that spread an update over
+    many values (through features or eligibility traces) use this rather
+    than `update`. Tables that can be shared between threads override this
+    to make it atomic.
+  */
+  default void add(int state, int action, double amount) {
+    set(state, action, get(state, action) + amount);
+  }
+
+  /**
+    Returns the index of the action with the highest value in a state.
+    Ties are broken in favour of the action that comes first.
+  */
+  default int bestAction(int state) {
+    int best = 0;
+    double bestValue = get(state, 0);
+    for (int a = 1; a < getNumActions(); a++) {
+      double value = get(state, a);
+      if (value > bestValue) {
+        best = a;
+        bestValue = value;
+      }
+    }
+    return best;
+  }
+
+}
@@ -0,0 +1,67 @@
+package np.tdfishers.learning;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+  A dense Q-table meant to be shared by many learners at once, possibly
+  acting from different threads. Values are stored as the raw bits of
+  doubles in an atomic array, so reads never block and each update is
+  applied through a compare-and-set loop on its own slot: concurrent updates
+  of the same action value can't get lost, and updates of different action
+  values never get in each other's way.
+*/
+public class SharedQTable implements QTable {
+
+  private final int numStates;
+  private final int numActions;
+  private final AtomicLongArray values;
+
+  public SharedQTable(int numStates, int numActions, double initialValue) {
+    this.numStates = numStates;
+    this.numActions = numActions;
+    values = new AtomicLongArray(numStates * numActions);
+    long initialBits = Double.doubleToRawLongBits(initialValue);
+    if (initialBits != 0L)
+      for (int i = 0; i < values.length(); i++) values.set(i, initialBits);
+  }
+
+  public SharedQTable(int numStates, int numActions) {
+    this(numStates, numActions, 0.0);
+  }
+
+  public int getNumStates() { return numStates; }
+
+  public int getNumActions() { return numActions; }
+
+  public int getRowsAllocated() { return numStates; }
+
+  public double get(int state, int action) {
+    return Double.longBitsToDouble(values.get(state * numActions + action));
+  }
+
+  public void set(int state, int action, double value) {
+    values.set(state * numActions + action, Double.doubleToRawLongBits(value));
+  }
+
+  @Override
+  public void update(int state, int action, double rate, double target) {
+    int i = state * numActions + action;
+    long oldBits, newBits;
+    do {
+      oldBits = values.get(i);
+      double q = Double.longBitsToDouble(oldBits);
+      newBits = Double.doubleToRawLongBits(q + rate * (target - q));
+    } while (!values.compareAndSet(i, oldBits, newBits));
+  }
+
+  @Override
+  public void add(int state, int action, double amount) {
+    int i = state * numActions + action;
+    long oldBits, newBits;
+    do {
+      oldBits = values.get(i);
+      newBits = Double.doubleToRawLongBits(Double.longBitsToDouble(oldBits) + amount);
+    } while (!values.compareAndSet(i, oldBits, newBits));
+  }
+
+}
@@ -0,0 +1,138 @@
+package np.tdfishers.learning;
+
+import java.util.Arrays;
+
+/**
+  A Q-table that only allocates a row of action values the first time a
+  value is written for a state. Until then, every action in that state
+  is worth the default value.
+
+  Rows are found through a small open-addressing hash table going from
+  state index to row number, and the rows themselves are packed one after
+  the other in a flat array that grows as needed. Memory is thus
+  proportional to the number of states actually visited, not to the number
+  of possible states, which matters a lot when the ocean gets big.
+*/
+public class SparseQTable implements QTable {
+
+  private static final int EMPTY = -1;
+
+  private final int numStates;
+  private final int numActions;
+  private final double defaultValue;
+
+  private int[] slotStates; // the state stored in each slot of the hash table, or EMPTY
+  private int[] slotRows;   // the row number stored in each slot of the hash table
+  private double[] values;  // all the allocated rows, one after the other
+  private int rowsAllocated = 0;
+
+  public SparseQTable(int numStates, int numActions, double defaultValue) {
+    this.numStates = numStates;
+    this.numActions = numActions;
+    this.defaultValue = defaultValue;
+    slotStates = new int[16];
+    slotRows = new int[16];
+    Arrays.fill(slotStates, EMPTY);
+    values = new double[8 * numActions];
+  }
+
+  public SparseQTable(int numStates, int numActions) {
+    this(numStates, numActions, 0.0);
+  }
+
+  public int getNumStates() { return numStates; }
+
+  public int getNumActions() { return numActions; }
+
+  public double getDefaultValue() { return defaultValue; }
+
+  public int getRowsAllocated() { return rowsAllocated; }
+
+  /**
+    Returns the states that have a row, in the order in which their rows
+    were allocated. Setting their values in that same order on an empty
+    table rebuilds an identical one.
+  */
+  public int[] getAllocatedStates() {
+    int[] states = new int[rowsAllocated];
+    for (int i = 0; i < slotStates.length; i++)
+      if (slotStates[i] != EMPTY) states[slotRows[i]] = slotStates[i];
+    return states;
+  }
+
+  public double get(int state, int action) {
+    int row = findRow(state);
+    return row == EMPTY ? defaultValue : values[row * numActions + action];
+  }
+
+  public void set(int state, int action, double value) {
+    int row = rowFor(state); // this might grow `values`, so we do it first
+    values[row * numActions + action] = value;
+  }
+
+  @Override
+  public int bestAction(int state) {
+    int row = findRow(state);
+    if (row == EMPTY) return 0; // all actions are tied at the default value
+    int offset = row * numActions;
+    int best = 0;
+    double bestValue = values[offset];
+    for (int a = 1; a < numActions; a++) {
+      if (values[offset + a] > bestValue) {
+        best = a;
+        bestValue = values[offset + a];
+      }
+    }
+    return best;
+  }
+
+  private int slot(int state, int mask) {
+    return (state * 0x9E3779B9 >>> 7) & mask; // Fibonacci hashing spreads neighbouring states
+  }
+
+  /** Returns the row number of a state, or EMPTY if it has none yet */
+  private int findRow(int state) {
+    int mask = slotStates.length - 1;
+    for (int i = slot(state, mask); ; i = (i + 1) & mask) {
+      if (slotStates[i] == state) return slotRows[i];
+      if (slotStates[i] == EMPTY) return EMPTY;
+    }
+  }
+
+  /** Returns the row number of a state, allocating a new row if needed */
+  private int rowFor(int state) {
+    int mask = slotStates.length - 1;
+    int i = slot(state, mask);
+    while (slotStates[i] != EMPTY) {
+      if (slotStates[i] == state) return slotRows[i];
+      i = (i + 1) & mask;
+    }
+    // This is the first time we see that state: give it a row
+    int row = rowsAllocated++;
+    if (values.length < rowsAllocated * numActions)
+      values = Arrays.copyOf(values, values.length * 2);
+    Arrays.fill(values, row * numActions, rowsAllocated * numActions, defaultValue);
+    slotStates[i] = state;
+    slotRows[i] = row;
+    // keep the hash table at most half full
+    if (rowsAllocated * 2 > slotStates.length) rehash();
+    return row;
+  }
+
+  private void rehash() {
+    int[] oldStates = slotStates;
+    int[] oldRows = slotRows;
+    slotStates = new int[oldStates.length * 2];
+    slotRows = new int[oldRows.length * 2];
+    Arrays.fill(slotStates, EMPTY);
+    int mask = slotStates.length - 1;
+    for (int j = 0; j < oldStates.length; j++) {
+      if (oldStates[j] == EMPTY) continue;
+      int i = slot(oldStates[j], mask);
+      while (slotStates[i] != EMPTY) i = (i + 1) & mask;
+      slotStates[i] = oldStates[j];
+      slotRows[i] = oldRows[j];
+    }
+  }
+
+}
@@ -0,0 +1,65 @@
+package np.tdfishers.learning;
+
+/**
+  Turns a point in a continuous space into a handful of active features,
+  using tile coding: the space is covered by several grids of tiles (the
+  tilings), each one offset from the others by a fraction of a tile, and
+  the point activates the one tile that contains it in each tiling. Points
+  that are close to each other share most of their tiles, which is what
+  lets a learner generalise from one to the other, and the offsets make
+  the resolution finer than the size of a tile.
+
+  Inputs are measured in tiles: along dimension `d`, the input should be
+  between 0 and `tiles[d]`. Each tiling gets an extra tile in every
+  dimension so that offset points still fall in a tile. Following Sutton
+  and Barto, tilings are offset by different amounts along different
+  dimensions (1, 3, 5... times a fraction of a tile), which avoids the
+  diagonal artefacts of offsetting them uniformly.
+
+  A dimension with a single tile per unit and integer inputs, like a
+  boolean encoded as 0 or 1, is never split by the offsets (they are all
+  smaller than a tile), so it keeps the features of its values apart.
+*/
+public class TileCoder {
+
+  private final int numTilings;
+  private final int[] tiles; // per dimension, including the extra one for the offsets
+  private final int tilesPerTiling;
+
+  public TileCoder(int numTilings, int... tiles) {
+    if (numTilings < 1) throw new IllegalArgumentException("Need at least one tiling");
+    this.numTilings = numTilings;
+    this.tiles = new int[tiles.length];
+    int tilesPerTiling = 1;
+    for (int d = 0; d < tiles.length; d++) {
+      this.tiles[d] = tiles[d] + 1;
+      tilesPerTiling *= this.tiles[d];
+    }
+    this.tilesPerTiling = tilesPerTiling;
+  }
+
+  public int getNumTilings() { return numTilings; }
+
+  /** The number of distinct features, i.e., of tiles in all the tilings */
+  public int getNumFeatures() { return numTilings * tilesPerTiling; }
+
+  /**
+    Writes the index of the tile containing the input point in each tiling
+    to `features`, starting at position `from`, and adds `firstFeature` to
+    each of them (so that the features of several coders can be numbered
+    one after the other).
+  */
+  public void getFeatures(double[] input, int[] features, int from, int firstFeature) {
+    for (int t = 0; t < numTilings; t++) {
+      int index = 0;
+      for (int d = 0; d < tiles.length; d++) {
+        double offset = ((t * (2 * d + 1)) % numTilings) / (double) numTilings;
+        int tile = (int) Math.floor(input[d] + offset);
+        tile = Math.max(0, Math.min(tiles[d] - 1, tile));
+        index = index * tiles[d] + tile;
+      }
+      features[from + t] = firstFeature + t * tilesPerTiling + index;
+    }
+  }
+
+}
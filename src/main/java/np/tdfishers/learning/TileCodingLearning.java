@@ -0,0 +1,170 @@
+package np.tdfishers.learning;
+
+import ec.util.MersenneTwisterFast;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+import java.util.function.IntToDoubleFunction;
+
+/**
+  SARSA(lambda) with linear function approximation: instead of having a value
+  for each state and action, states are described by a few active binary
+  features (typically from a `TileCoder`), and the value of an action in a
+  state is the sum of the weights of that action for each active feature.
+  Memory grows with the number of features rather than the number of
+  states, and what is learned in a state carries over to similar states.
+
+  The weights are kept in a `QTable`, with one "state" per feature, so that
+  they can be dense, lazily allocated or shared between learners, just like
+  action values. Each update is spread evenly over the active features.
+
+  Eligibility traces are kept for the steps taken recently: an update
+  applies to the features and action of the current step, and, to a
+  decreasing extent (by a factor of `gamma * lambda` per step), to those of
+  the steps before (see `EligibilityTraces`). With `lambda` at 0, this is
+  plain SARSA.
+
+  This follows the same contract as `IndexedLearning`, so a fisher can use
+  either one.
+*/
+public class TileCodingLearning implements Learner {
+
+  private final IntToDoubleFunction perform;
+  private final int numActions;
+  private final double epsilon;
+  private final double alpha;
+  private final double gamma;
+  private final MersenneTwisterFast rng;
+  private final QTable weights;
+  private final FeatureSupplier currentFeatures;
+  private final int numActive; // the number of active features in any state
+
+  private final EligibilityTraces traces;
+  private ConvergenceStats convergenceStats; // null unless someone is watching
+
+  private final int[] nextFeatures;
+  private final double[] actionValues; // scratch space for finding the best action
+  private int nextAction;
+  private boolean exploring = true; // whether `nextAction` was picked at random
+  private double tdError; // computed by `prepareUpdate`, applied by `commitUpdate`
+
+  /**
+    @param weights         The weights of each action for each feature.
+    @param actions         A list of actions, which are lambdas returning rewards.
+    @param currentFeatures A lambda writing the features of the current state.
+    @param numActive     The number of features active in any given state.
+    @param epsilon         The exploration rate.
+    @param alpha           The learning rate, which gets split among the active features.
+    @param gamma           The discount factor for future states.
+    @param lambda          The decay rate of eligibility traces.
+    @param traceCutoff     The smallest trace worth keeping.
+    @param replacingTraces Whether traces are replacing rather than accumulating.
+    @param rng             The random number generator.
+  */
+  public TileCodingLearning(QTable weights, List<DoubleSupplier> actions,
+    FeatureSupplier currentFeatures, int numActive, double epsilon, double alpha,
+    double gamma, double lambda, double traceCutoff, boolean replacingTraces,
+    MersenneTwisterFast rng) {
+    this(weights, IndexedLearning.byIndex(actions, weights), currentFeatures, numActive,
+      epsilon, alpha, gamma, lambda, traceCutoff, replacingTraces, rng);
+  }
+
+  /**
+    @param perform A function taking the index of an action, taking that
+                   action and returning its reward, as in `IndexedLearning`.
+    (The other parameters are the same as above.)
+  */
+  public TileCodingLearning(QTable weights, IntToDoubleFunction perform,
+    FeatureSupplier currentFeatures, int numActive, double epsilon, double alpha,
+    double gamma, double lambda, double traceCutoff, boolean replacingTraces,
+    MersenneTwisterFast rng) {
+    this.weights = weights;
+    this.perform = perform;
+    this.numActions = weights.getNumActions();
+    this.currentFeatures = currentFeatures;
+    this.numActive = numActive;
+    this.epsilon = epsilon;
+    this.alpha = alpha;
+    this.gamma = gamma;
+    this.rng = rng;
+    traces = new EligibilityTraces(numActive, gamma * lambda, traceCutoff, replacingTraces);
+    nextFeatures = new int[numActive];
+    actionValues = new double[numActions];
+    nextAction = randomAction();
+  }
+
+  public QTable getQTable() { return weights; }
+
+  public MersenneTwisterFast getRng() { return rng; }
+
+  public ConvergenceStats getConvergenceStats() { return convergenceStats; }
+  public void setConvergenceStats(ConvergenceStats stats) { convergenceStats = stats; }
+
+  public int getNextAction() { return nextAction; }
+  public void setNextAction(int action) { nextAction = action; }
+
+  public boolean isNextActionRandom() { return exploring; }
+
+  /** The number of recent steps that the traces cover */
+  public int getTraceLength() { return traces.getLength(); }
+
+  public int randomAction() {
+    return rng.nextInt(numActions);
+  }
+
+  /** The value of an action in a state described by some active features */
+  public double value(int[] features, int action) {
+    double value = 0.0;
+    for (int f : features) value += weights.get(f, action);
+    return value;
+  }
+
+  /** The action with the highest value in a state, the first one in case of ties */
+  public int bestAction(int[] features) {
+    Arrays.fill(actionValues, 0.0);
+    for (int f : features)
+      for (int a = 0; a < actionValues.length; a++) actionValues[a] += weights.get(f, a);
+    int best = 0;
+    for (int a = 1; a < actionValues.length; a++)
+      if (actionValues[a] > actionValues[best]) best = a;
+    return best;
+  }
+
+  public void act() {
+    int action = startAction();
+    finishAction(perform.applyAsDouble(action));
+  }
+
+  public int startAction() {
+    // the step we're starting becomes the most recent one
+    currentFeatures.getFeatures(traces.next());
+    traces.visit(nextAction);
+    return nextAction;
+  }
+
+  public void finishAction(double reward) {
+    prepareUpdate(reward);
+    commitUpdate();
+  }
+
+  public void prepareUpdate(double reward) {
+    double q = value(traces.getFeatures(), traces.getAction());
+    currentFeatures.getFeatures(nextFeatures);
+    exploring = rng.nextDouble() < epsilon;
+    nextAction = exploring ?
+      randomAction() :          // explore...
+      bestAction(nextFeatures); // ...or exploit
+    tdError = reward + gamma * value(nextFeatures, nextAction) - q;
+  }
+
+  public void commitUpdate() {
+    if (convergenceStats == null) {
+      traces.apply(weights, alpha / numActive * tdError);
+    } else {
+      int greedyAction = bestAction(traces.getFeatures());
+      traces.apply(weights, alpha / numActive * tdError);
+      convergenceStats.record(tdError, bestAction(traces.getFeatures()) != greedyAction);
+    }
+  }
+
+}
@@ -0,0 +1,184 @@
+package np.tdfishers.model;
+
+import java.nio.DoubleBuffer;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import np.tdfishers.learning.Learner;
+
+/**
+  Runs many independent simulations together, in lockstep, without going
+  through MASON's schedule. This is meant for parameter sweeps over lots of
+  small oceans, where the cost of stepping a `TDFishers` is mostly
+  overhead.
+
+  Each simulation is set up by its own `TDFishers`, whose `start()` is
+  called as usual. The engine then takes over: the biomass of every ocean
+  is kept in a `[simulation][cell]` array, and the fishers of all
+  simulations are laid out one after the other in flat arrays, so a step is
+  just a few tight loops. The fishers, their learners and their fleets are
+  the very ones the simulations made.
+
+  Each step does exactly what a step of the `TDFishers` schedule does when
+  fishers are stepped in parallel, with the same code (see `FleetStepper`,
+  and the array versions of `Ocean.diffuse` and `Ocean.diffuseSequentially`):
+  the fishers act, and then, every day, fish spread (and grow, every year).
+  That's why simulations have to have `parallelStepping` on. For the same
+  `TDFishers`, the results are the same down to the last bit. Simulations
+  are stepped concurrently, which doesn't change their results either.
+
+  Parameters are read from each simulation's `TDFishers`, so they can be
+  different for each of them; so can the size of the ocean or the number of
+  fishers. `sync` copies a simulation's state back into its `TDFishers`,
+  which can then be observed, sampled or checkpointed as usual.
+*/
+public class BatchEngine {
+
+  private final TDFishers[] sims;
+
+  // the biomass of each cell of each ocean, and a second buffer for diffusion
+  private final double[][] biomass;
+  private final double[][] nextBiomass;
+
+  // The fishers of simulation `k` are found from `first[k]` to `first[k + 1]`
+  private final int[] first;
+  private final Fisher[] fishers;
+  private final Learner[] learners;
+  private final int[] actions;
+  private final double[] rewards;
+  private final long[] trawls; // cell index in the high bits, fisher index in the low bits
+
+  private final ForkJoinPool pool;
+  private long steps = 0;
+
+  /**
+    Starts each of the simulations and takes over from there. They should
+    have all their parameters set, and shouldn't be stepped on their own
+    afterwards.
+  */
+  public BatchEngine(List<TDFishers> simulations, int threads) {
+    int n = simulations.size();
+    sims = simulations.toArray(new TDFishers[0]);
+    biomass = new double[n][];
+    nextBiomass = new double[n][];
+    first = new int[n + 1];
+    for (int k = 0; k < n; k++) {
+      TDFishers tdf = sims[k];
+      if (!tdf.isParallelStepping())
+        throw new IllegalArgumentException("The batch engine steps fishers in parallel, as a FleetStepper does");
+      if (tdf.isCollectMetrics())
+        throw new IllegalArgumentException("The batch engine doesn't collect metrics");
+      if (!tdf.getTrajectoryFile().isEmpty())
+        throw new IllegalArgumentException("The batch engine doesn't record trajectories");
+      tdf.start();
+      first[k + 1] = first[k] + tdf.fishers.size();
+    }
+    int numFishers = first[n];
+    fishers = new Fisher[numFishers];
+    learners = new Learner[numFishers];
+    actions = new int[numFishers];
+    rewards = new double[numFishers];
+    trawls = new long[numFishers];
+    for (int k = 0; k < n; k++) {
+      TDFishers tdf = sims[k];
+      biomass[k] = tdf.ocean.toArray();
+      nextBiomass[k] = new double[biomass[k].length];
+      for (int i = first[k]; i < first[k + 1]; i++) {
+        fishers[i] = tdf.fishers.get(i - first[k]);
+        learners[i] = fishers[i].getLearning();
+      }
+    }
+    pool = threads > 1 && n > 1 ? new ForkJoinPool(threads) : null;
+  }
+
+  public int getNumSimulations() { return sims.length; }
+
+  /** The number of steps taken so far, which is also the time of the next step */
+  public long getSteps() { return steps; }
+
+  /** The biomass of each cell of an ocean, row after row, as it is right now */
+  public double[] getBiomass(int k) { return biomass[k]; }
+
+  /** Advances every simulation by one step */
+  public void step() {
+    long time = steps;
+    forEachSimulation(k -> stepSimulation(k, time));
+    steps++;
+  }
+
+  /**
+    Advances every simulation by a number of steps. Each simulation is run
+    for all those steps in one go, which is easier on the caches than
+    stepping them all one step at a time.
+  */
+  public void run(long numSteps) {
+    long start = steps;
+    forEachSimulation(k -> {
+      for (long time = start; time < start + numSteps; time++) stepSimulation(k, time);
+    });
+    steps += numSteps;
+  }
+
+  private void forEachSimulation(IntConsumer f) {
+    if (pool == null)
+      for (int k = 0; k < sims.length; k++) f.accept(k);
+    else
+      pool.submit(() -> IntStream.range(0, sims.length).parallel().forEach(f)).join();
+  }
+
+  /** The same as a step of the `TDFishers` schedule at the given time */
+  private void stepSimulation(int k, long time) {
+    stepFishers(k);
+    if (time % (long) TDFishers.DAY == 0) {
+      boolean grow = time % (long) TDFishers.YEAR == 0;
+      TDFishers tdf = sims[k];
+      int w = tdf.ocean.getWidth();
+      int h = tdf.ocean.getHeight();
+      if (tdf.isSynchronousDiffusion()) {
+        Ocean.diffuse(tdf.getM(), grow, tdf.getR(), tdf.getK(), biomass[k], nextBiomass[k], w, h);
+        double[] swap = biomass[k];
+        biomass[k] = nextBiomass[k];
+        nextBiomass[k] = swap;
+      } else {
+        Ocean.diffuseSequentially(tdf.getM(), biomass[k], w, h);
+        if (grow) for (int c = 0; c < biomass[k].length; c++)
+          biomass[k][c] = Biology.newBiomass(biomass[k][c], tdf.getR(), tdf.getK());
+      }
+    }
+  }
+
+  /** The three phases of `FleetStepper`, for the fishers of one simulation */
+  private void stepFishers(int k) {
+    int from = first[k];
+    int to = first[k + 1];
+    for (int i = from; i < to; i++) actions[i] = learners[i].startAction();
+    FleetStepper.resolveActions(fishers, from, to, actions, rewards, trawls,
+      DoubleBuffer.wrap(biomass[k]), sims[k].getCatchability());
+    // compute all the updates, then write them (the fishers might share a table)
+    for (int i = from; i < to; i++) learners[i].prepareUpdate(rewards[i]);
+    for (int i = from; i < to; i++) learners[i].commitUpdate();
+  }
+
+  /**
+    Copies the current state of a simulation back into its `TDFishers`,
+    including the time on its schedule, and returns it. The fishers and
+    their learners are shared, so they are always up to date.
+  */
+  public TDFishers sync(int k) {
+    TDFishers tdf = sims[k];
+    tdf.ocean.copyFrom(DoubleBuffer.wrap(biomass[k]));
+    tdf.syncOceanGrid();
+    tdf.syncFishersGrid();
+    ((ResumableSchedule) tdf.schedule).resume(steps - 1, steps);
+    tdf.scheduleProcesses(steps);
+    return tdf;
+  }
+
+  /** Shuts down the threads, if any, and lets the simulations finish */
+  public void finish() {
+    if (pool != null) pool.shutdown();
+    for (TDFishers tdf : sims) tdf.finish();
+  }
+
+}
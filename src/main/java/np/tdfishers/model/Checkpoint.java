@@ -0,0 +1,296 @@
+package np.tdfishers.model;
+
+import ec.util.MersenneTwisterFast;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import np.tdfishers.learning.DenseQTable;
+import np.tdfishers.learning.Learner;
+import np.tdfishers.learning.QTable;
+import np.tdfishers.learning.SparseQTable;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+  Saves the state of a running simulation to a file, and restores it, so
+  that fishers don't have to learn everything from scratch every time.
+  A checkpoint holds what the fleet has learned (every distinct Q-table),
+  the biomass of the ocean, where each fisher is and what it carries, the
+  state of the random number generators, and the time on the schedule.
+
+  The file is written and read through a memory-mapped `FileChannel`, in
+  little-endian order. Q-tables and the ocean are copied in bulk between
+  their buffers or arrays and the mapping, so even huge tables load at the
+  speed of the disk, with no parsing involved. The layout is:
+
+  - a header: the magic number `TDCK`, a format version, the grid's width
+    and height, the number of fishers, flags for lazy Q-tables, fleet
+    learning, parallel stepping and tile coding, and the number of tilings
+    (all ints) and size of tiles (a double);
+  - the time (a double) and number of steps (a long) of the schedule;
+  - the state of the main random number generator (an int length + bytes);
+  - the biomass of every cell, row after row (doubles);
+  - the number of distinct Q-tables (an int) and then, for each of them,
+    its kind, number of states, actions and rows (ints), followed either
+    by all its values (for a dense table) or by the state (an int) and
+    values of each allocated row (for a lazy table);
+  - for each fisher: its location (ints), fish carried (a double), whether
+    it's moving and its next action (ints), and the state of its own random
+    number generator (an int length + bytes).
+
+  Only the parameters that determine the structure of the simulation are
+  saved. When restoring, the header overrides these, and every other
+  parameter (prices, learning rates, etc.) keeps its current value: this is
+  what lets a parameter sweep start from a fleet that has already learned.
+
+  Restoring a simulation stepped in parallel gives exactly the same results
+  as if it had never stopped. When fishers are stepped one by one, MASON
+  shuffles them in an order that depends on its internal queue, which
+  isn't saved, so the restored simulation carries on from the same state
+  but not in the exact same way. The same goes for the eligibility traces
+  of fishers learning with a `lambda` above 0: they start afresh.
+*/
+public class Checkpoint {
+
+  public static final int MAGIC = 0x5444434B; // "TDCK"
+  public static final int VERSION = 3;
+
+  private static final int DENSE = 0;
+  private static final int SPARSE = 1;
+
+  private static final int LAZY_Q_TABLES = 1;
+  private static final int FLEET_LEARNING = 2;
+  private static final int PARALLEL_STEPPING = 4;
+  private static final int TILE_CODING = 8;
+
+  private Checkpoint() {}
+
+  /** Saves the state of a simulation, in between steps, to a file */
+  public static void save(TDFishers tdf, Path path) throws IOException {
+
+    List<QTable> tables = distinctQTables(tdf.fishers);
+    byte[] rngState = stateOf(tdf.random);
+    byte[][] fisherRngStates = new byte[tdf.fishers.size()][];
+
+    long size = 7 * Integer.BYTES + 2 * Double.BYTES + Long.BYTES;
+    size += Integer.BYTES + rngState.length;
+    size += (long) tdf.ocean.size() * Double.BYTES;
+    size += Integer.BYTES;
+    for (QTable table : tables) {
+      size += 4 * Integer.BYTES;
+      size += table instanceof SparseQTable ?
+        table.getRowsAllocated() * (Integer.BYTES + (long) table.getNumActions() * Double.BYTES) :
+        (long) table.getNumStates() * table.getNumActions() * Double.BYTES;
+    }
+    for (int i = 0; i < tdf.fishers.size(); i++) {
+      MersenneTwisterFast rng = tdf.fishers.get(i).getLearning().getRng();
+      fisherRngStates[i] = stateOf(rng);
+      size += 5 * Integer.BYTES + Double.BYTES + fisherRngStates[i].length;
+    }
+    if (size > Integer.MAX_VALUE)
+      throw new IOException(
+        "A checkpoint of " + size + " bytes can't be mapped at once; try lazy Q-tables");
+
+    try (FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE, TRUNCATE_EXISTING)) {
+      MappedByteBuffer mapped = channel.map(READ_WRITE, 0, size);
+      ByteBuffer out = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+      out.putInt(tdf.getGridWidth());
+      out.putInt(tdf.getGridHeight());
+      out.putInt(tdf.fishers.size());
+      out.putInt(
+        (tdf.isLazyQTables() ? LAZY_Q_TABLES : 0) |
+        (tdf.isFleetLearning() ? FLEET_LEARNING : 0) |
+        (tdf.isParallelStepping() ? PARALLEL_STEPPING : 0) |
+        (tdf.isTileCoding() ? TILE_CODING : 0));
+      out.putInt(tdf.getNumTilings());
+      out.putDouble(tdf.getTileSize());
+      out.putDouble(tdf.schedule.getTime());
+      out.putLong(tdf.schedule.getSteps());
+      putBytes(out, rngState);
+
+      DoubleBuffer oceanCells = doubles(out, tdf.ocean.size());
+      tdf.ocean.copyTo(oceanCells);
+
+      out.putInt(tables.size());
+      for (QTable table : tables) {
+        int numActions = table.getNumActions();
+        out.putInt(table instanceof SparseQTable ? SPARSE : DENSE);
+        out.putInt(table.getNumStates());
+        out.putInt(numActions);
+        out.putInt(table.getRowsAllocated());
+        if (table instanceof SparseQTable) {
+          for (int state : ((SparseQTable) table).getAllocatedStates()) {
+            out.putInt(state);
+            DoubleBuffer row = doubles(out, numActions);
+            for (int a = 0; a < numActions; a++) row.put(table.get(state, a));
+          }
+        } else {
+          DoubleBuffer values = doubles(out, table.getNumStates() * numActions);
+          if (table instanceof DenseQTable)
+            ((DenseQTable) table).exportTo(values);
+          else
+            for (int s = 0; s < table.getNumStates(); s++)
+              for (int a = 0; a < numActions; a++) values.put(table.get(s, a));
+        }
+      }
+
+      for (int i = 0; i < tdf.fishers.size(); i++) {
+        Fisher fisher = tdf.fishers.get(i);
+        out.putInt(fisher.getX());
+        out.putInt(fisher.getY());
+        out.putDouble(fisher.getFishCarried());
+        out.putInt(fisher.doubleValue() == Fisher.IS_MOVING ? 1 : 0);
+        out.putInt(fisher.getLearning().getNextAction());
+        putBytes(out, fisherRngStates[i]);
+      }
+
+      mapped.force();
+    }
+  }
+
+  /**
+    Restarts a simulation from a checkpoint: the simulation is started with
+    the structure saved in the checkpoint, after which everything the
+    checkpoint holds is put back in place and the schedule resumes right
+    after the step at which it was saved.
+  */
+  public static void restore(TDFishers tdf, Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      ByteBuffer in = channel.map(READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+
+      if (in.getInt() != MAGIC) throw new IOException("Not a TDFishers checkpoint");
+      int version = in.getInt();
+      if (version != VERSION) throw new IOException("Unsupported checkpoint version: " + version);
+      tdf.setGridWidth(in.getInt());
+      tdf.setGridHeight(in.getInt());
+      tdf.setNumFishers(in.getInt());
+      int flags = in.getInt();
+      tdf.setLazyQTables((flags & LAZY_Q_TABLES) != 0);
+      tdf.setFleetLearning((flags & FLEET_LEARNING) != 0);
+      tdf.setParallelStepping((flags & PARALLEL_STEPPING) != 0);
+      tdf.setTileCoding((flags & TILE_CODING) != 0);
+      tdf.setNumTilings(in.getInt());
+      tdf.setTileSize(in.getDouble());
+      double time = in.getDouble();
+      long steps = in.getLong();
+      byte[] rngState = getBytes(in);
+
+      tdf.start();
+
+      tdf.ocean.copyFrom(doubles(in, tdf.ocean.size()));
+      tdf.syncOceanGrid();
+
+      List<QTable> tables = distinctQTables(tdf.fishers);
+      int numTables = in.getInt();
+      if (numTables != tables.size())
+        throw new IOException("Expected " + tables.size() + " Q-tables but got " + numTables);
+      for (QTable table : tables) {
+        int kind = in.getInt();
+        int numStates = in.getInt();
+        int numActions = in.getInt();
+        int rows = in.getInt();
+        if (numStates != table.getNumStates() || numActions != table.getNumActions())
+          throw new IOException("Q-table sizes don't match");
+        if (kind == SPARSE) {
+          for (int r = 0; r < rows; r++) {
+            int state = in.getInt();
+            DoubleBuffer row = doubles(in, numActions);
+            for (int a = 0; a < numActions; a++) table.set(state, a, row.get());
+          }
+        } else {
+          DoubleBuffer values = doubles(in, numStates * numActions);
+          if (table instanceof DenseQTable)
+            ((DenseQTable) table).importFrom(values);
+          else
+            for (int s = 0; s < numStates; s++)
+              for (int a = 0; a < numActions; a++) table.set(s, a, values.get());
+        }
+      }
+
+      for (Fisher fisher : tdf.fishers) {
+        int x = in.getInt();
+        int y = in.getInt();
+        double fishCarried = in.getDouble();
+        boolean moving = in.getInt() != 0;
+        fisher.restore(x, y, fishCarried, moving);
+        Learner learning = fisher.getLearning();
+        learning.setNextAction(in.getInt());
+        byte[] fisherRngState = getBytes(in);
+        if (fisherRngState.length == 0)
+          throw new IOException("Missing the random number generator of fisher " + fisher.getId());
+        restoreState(learning.getRng(), fisherRngState);
+      }
+
+      tdf.syncFishersGrid();
+      restoreState(tdf.random, rngState);
+      ((ResumableSchedule) tdf.schedule).resume(time, steps);
+      tdf.scheduleProcesses(time + 1.0);
+    }
+  }
+
+  /** The fishers' Q-tables, each one once, in the order of the first fisher using it */
+  private static List<QTable> distinctQTables(List<Fisher> fishers) {
+    Map<QTable, Boolean> seen = new IdentityHashMap<>();
+    List<QTable> tables = new ArrayList<>();
+    for (Fisher fisher : fishers)
+      if (seen.put(fisher.getQTable(), true) == null) tables.add(fisher.getQTable());
+    return tables;
+  }
+
+  /**
+    Returns a view of the next `count` doubles of a buffer, and moves the
+    buffer's position past them.
+  */
+  private static DoubleBuffer doubles(ByteBuffer buffer, int count) {
+    DoubleBuffer view = buffer.asDoubleBuffer();
+    view.limit(count);
+    buffer.position(buffer.position() + count * Double.BYTES);
+    return view;
+  }
+
+  private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+    buffer.putInt(bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static byte[] getBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private static byte[] stateOf(MersenneTwisterFast rng) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      rng.writeState(out);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void restoreState(MersenneTwisterFast rng, byte[] state) throws IOException {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(state))) {
+      rng.readState(in);
+    }
+  }
+
+}
@@ -1,10 +1,15 @@
 package np.tdfishers.model;
 
-import sim.engine.Steppable;
-import sim.engine.SimState;
-import static sim.field.grid.Grid2D.BOUNDED;
+import java.util.concurrent.ForkJoinPool;
 
-public class Diffuser implements Steppable {
+/**
+  Diffusion of fish between the cells of a matrix. The model diffuses its
+  `Ocean` directly (see `OceanStepper`), and these are kept as the
+  reference that it is checked against.
+*/
+public final class Diffuser {
+
+  private Diffuser() {}
 
   /** run diffusion between two cells in a matrix */
   public static void diffuse(double m, double[][] a, int x1, int y1, int x2, int y2) {
@@ -22,6 +27,8 @@ public class Diffuser implements Steppable {
     The order in which we do this (left to right, top to bottom) introduces
     some bias. I should probably use some kind of synchronous updating
     but I'm going quick and dirty here...
+
+    (This is now the legacy mode: see `diffuseAllSynchronously`.)
   */
   public static void diffuseAll(double m, double[][] a) {
     for (int x = 0; x < a.length; x++)
@@ -31,9 +38,27 @@ public class Diffuser implements Steppable {
       }
   }
 
-  public void step(SimState state) {
-    TDFishers tdf = (TDFishers)state;
-    diffuseAll(tdf.getM(), tdf.oceanGrid.field);
+  /**
+    Run synchronous diffusion for all cells in a matrix: the fish exchanged
+    between each pair of von Neumann neighbours only depends on what was in
+    the `from` matrix, and the result is written to the `to` matrix. There
+    is no directional bias, and since cells don't depend on each other's
+    new values, they can be computed in any order. (This is a convenience
+    wrapper around `Ocean.diffuse`, which is what the model uses.)
+  */
+  public static void diffuseAllSynchronously(double m, double[][] from, double[][] to) {
+    diffuseAllSynchronously(m, from, to, null);
+  }
+
+  /**
+    Same as above, but splitting the rows of big matrices in bands that get
+    diffused in parallel in the given pool. The result is exactly the same
+    as when diffusing sequentially, whatever the number of threads.
+  */
+  public static void diffuseAllSynchronously(double m, double[][] from, double[][] to, ForkJoinPool pool) {
+    Ocean ocean = Ocean.of(from);
+    ocean.diffuse(m, pool);
+    ocean.copyTo(to);
   }
 
 }
@@ -1,52 +1,66 @@
 package np.tdfishers.model;
 
-import java.awt.Color;
-import java.util.ArrayList;
-import java.util.function.DoubleSupplier;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.stream.Stream;
-import np.tdfishers.learning.Learning;
-import sim.engine.Schedule;
+import ec.util.MersenneTwisterFast;
+import np.tdfishers.learning.ConvergenceStats;
+import np.tdfishers.learning.DenseQTable;
+import np.tdfishers.learning.IndexedLearning;
+import np.tdfishers.learning.Learner;
+import np.tdfishers.learning.QTable;
+import np.tdfishers.learning.SparseQTable;
+import np.tdfishers.learning.TileCodingLearning;
+import np.tdfishers.observation.Metrics;
+import np.tdfishers.observation.TrajectoryRecorder;
 import sim.engine.SimState;
 import sim.engine.Steppable;
-import sim.field.grid.DoubleGrid2D;
-import sim.field.grid.SparseGrid2D;
-import sim.portrayal.simple.OvalPortrayal2D;
 import sim.util.Int2D;
 import sim.util.Valuable;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
-import static java.util.stream.Collectors.toCollection;
 
 public class Fisher implements Steppable, Valuable {
 
   // keep a ref to the SimState; not sure 100% legit, but makes things easier for now...
   private final TDFishers tdf;
 
+  // where we are, what we carry and whether we're moving is kept in the
+  // fleet's arrays, at our id
+  private final Fleet fleet;
+  private final int id;
+  public int getId() { return id; }
+
   // the following members are for the Valuable interface, used to select portrayal:
   public static final double IS_NOT_MOVING = 0.0;
   public static final double IS_MOVING = 1.0;
-  private double objectVal = IS_NOT_MOVING;
-  public double doubleValue() { return objectVal; }
+  public double doubleValue() { return fleet.moving[id] ? IS_MOVING : IS_NOT_MOVING; }
+
+  private final Learner learning; // this is our TD-learning module
+  private final Metrics metrics; // null unless the simulation collects metrics
+  private final TrajectoryRecorder recorder; // null unless the simulation is recorded
 
-  private final Learning learning; // this is our TD-learning module
+  public double getFishCarried() { return fleet.fishCarried[id]; }
+  public void setFishCarried(double val) { if (val > 0.0) fleet.fishCarried[id] = val; }
 
-  private double fishCarried = 0.0;
-  public double getFishCarried() { return fishCarried; }
-  public void setFishCarried(double val) { if (val > 0.0) fishCarried = val; }
+  public int getX() { return fleet.x[id]; }
+  public int getY() { return fleet.y[id]; }
+
+  // The grid and the port don't change during a run, so we work out once
+  // how far we can go, and which cell the port is in.
+  private final int maxX;
+  private final int maxY;
+  private final int portCell;
 
   public boolean isAtPort() {
-    return tdf.fishersGrid.getObjectLocation(this).equals(tdf.portLocation);
+    return getCell() == portCell;
   }
 
   public boolean isHoldFull() {
-    return fishCarried >= tdf.getHoldSize();
+    return fleet.fishCarried[id] >= tdf.getHoldSize();
   }
 
   public double getDistanceToPort() {
-    return tdf.fishersGrid.getObjectLocation(this).distance(tdf.portLocation);
+    int dx = fleet.x[id] - tdf.portLocation.x;
+    int dy = fleet.y[id] - tdf.portLocation.y;
+    return Math.sqrt(dx * dx + dy * dy);
   }
 
   // What follows are the three main actions that a fisher can take:
@@ -54,95 +68,188 @@ public class Fisher implements Steppable, Valuable {
   // the hold (`emptyHold()`) when at port.
 
   private double emptyHold() {
-    objectVal = IS_NOT_MOVING; // for portaying purposes
+    fleet.moving[id] = false; // for portaying purposes
     // when rewards are delayed, we get the reward for all the fish caught
-    double reward = tdf.isRewardDelayed() ? fishCarried * tdf.getFishPrice() : 0.0;
-    fishCarried = 0.0; // empty our hold
+    double reward = tdf.isRewardDelayed() ? fleet.fishCarried[id] * tdf.getFishPrice() : 0.0;
+    fleet.fishCarried[id] = 0.0; // empty our hold
     return reward;
   };
 
   private double trawl() {
-    objectVal = IS_NOT_MOVING; // for portaying purposes
+    fleet.moving[id] = false; // for portaying purposes
     double gasCost = tdf.getGasUnitsTrawling() * tdf.getGasPrice();
     if (isHoldFull()) {
       // if our hold is full, we're just wasting gas
       return 0.0 - gasCost;
     } else {
-      Int2D loc = tdf.fishersGrid.getObjectLocation(this);
-      double fishHere = tdf.oceanGrid.get(loc.x, loc.y);
+      int cell = getCell();
+      double fishHere = tdf.ocean.get(cell);
       // catch as much fish as we can given our space in hold
-      double spaceInHold = tdf.getHoldSize() - fishCarried;
-      double fishCaught = min(fishHere * tdf.getCatchability(), spaceInHold);
+      double fishCaught = min(fishHere * tdf.getCatchability(), getSpaceInHold());
       // remove fish from ocean and move it to hold
-      tdf.oceanGrid.set(loc.x, loc.y, fishHere - fishCaught);
-      fishCarried += fishCaught;
-      // unless rewards are delayed, we get a reward for fish caught
-      double reward = tdf.isRewardDelayed() ? 0.0 : fishCaught * tdf.getFishPrice();
-      // and we substract the cost of fuel from the reward
-      return reward - gasCost;
+      tdf.ocean.set(cell, fishHere - fishCaught);
+      return landCatch(fishCaught);
     }
   };
 
+  double getSpaceInHold() {
+    return tdf.getHoldSize() - fleet.fishCarried[id];
+  }
+
+  /** The index of the ocean cell we're in */
+  int getCell() {
+    return tdf.ocean.index(fleet.x[id], fleet.y[id]);
+  }
+
+  /**
+    Puts fish that has been taken out of the ocean in our hold and returns
+    the reward for the trawling that got it there.
+  */
+  double landCatch(double fishCaught) {
+    fleet.moving[id] = false; // for portaying purposes
+    fleet.fishCarried[id] += fishCaught;
+    // unless rewards are delayed, we get a reward for fish caught
+    double reward = tdf.isRewardDelayed() ? 0.0 : fishCaught * tdf.getFishPrice();
+    // and we substract the cost of fuel from the reward
+    return reward - tdf.getGasUnitsTrawling() * tdf.getGasPrice();
+  }
+
   private double move(int dx, int dy) {
-    objectVal = IS_MOVING; // for portaying purposes
-    // we move to a new location by applying the deltas
-    SparseGrid2D g = tdf.fishersGrid;
-    Int2D loc = g.getObjectLocation(this);
-    // we calculate the new coordinates, bounded to the grid
-    int x = max(min(loc.x + dx, g.getWidth()  - 1), 0);
-    int y = max(min(loc.y + dy, g.getHeight() - 1), 0);
-    g.setObjectLocation(this, x, y);
+    fleet.moving[id] = true; // for portaying purposes
+    // we move to a new location by applying the deltas,
+    // bounded to the grid
+    fleet.x[id] = max(min(fleet.x[id] + dx, maxX), 0);
+    fleet.y[id] = max(min(fleet.y[id] + dy, maxY), 0);
     // and we get a negative reward from the cost of fuel
     // (we pay that cost even if we're bumping against the edge of the world...)
     double gasCost = tdf.getGasUnitsMoving() * tdf.getGasPrice();
     return 0.0 - gasCost;
   };
 
-  /**
-    This is a higher-order function that returns a lambda that can be used
-    as an action for the learning algorithm. When a change of coordinates is
-    involved, it returns a straight-up "move" action. When the coordinates don't
-    change, the action is conditional on the ship being at port or not.
-  */
-  private DoubleSupplier makeAction(int deltaX, int deltaY) {
-    // are we staying put?
-    return (deltaX == 0 && deltaY == 0) ?
-        // if we are, what happens depends if we're at port or not
-        () -> (isAtPort() ? emptyHold() : trawl()) :
-        // if we're not staying put, we're moving!
-        () -> move(deltaX, deltaY);
-  };
+  // Our actions are numbered, and these are the coordinate changes for each
+  // of them: staying put and moving to each of the 8 possible neighbouring
+  // cells. Staying put is in the middle.
+  static final int[] DELTA_X = { -1, 0, 1, -1, 0, 1, -1, 0, 1 };
+  static final int[] DELTA_Y = { -1, -1, -1, 0, 0, 0, 1, 1, 1 };
+  public static final int STAY_PUT = 4;
+  static final int NUM_ACTIONS = DELTA_X.length;
 
   /**
-    This generates a list of actions including staying put and moving to
-    each of the 8 possible neighbouring cells.
+    Takes action number `action` and returns its reward. When the
+    coordinates change, it's a straight-up move. When they don't, what
+    happens depends on whether we're at port or not.
+
+    This is what the learning algorithm calls to take our actions. Having
+    a single method for all of them (rather than an object per action)
+    means one call site that the JIT can inline, and nothing to allocate
+    per fisher.
   */
-  private List<DoubleSupplier> makeActions() {
-    return Stream.of(
-      makeAction(-1, -1), makeAction(0, -1), makeAction(1, -1),
-      makeAction(-1,  0), makeAction(0,  0), makeAction(1,  0),
-      makeAction(-1,  1), makeAction(0,  1), makeAction(1,  1)
-    ).collect(toCollection(ArrayList::new)); // ArrayList because we need O(1) indexed access
+  double perform(int action) {
+    switch (action) {
+      case STAY_PUT: return isAtPort() ? emptyHold() : trawl();
+      default: return move(DELTA_X[action], DELTA_Y[action]);
+    }
   }
 
   /** Returns the current state as a new instance of the FisherState case class */
   public FisherState getFisherState() {
-    Int2D loc = tdf.fishersGrid.getObjectLocation(this);
-    return new FisherState(loc, isHoldFull());
+    return new FisherState(new Int2D(fleet.x[id], fleet.y[id]), isHoldFull());
+  }
+
+  public QTable getQTable() { return learning.getQTable(); }
+
+  Learner getLearning() { return learning; }
+
+  /** Puts the fisher back where it was, as saved in a checkpoint */
+  void restore(int x, int y, double fishCarried, boolean moving) {
+    fleet.x[id] = x;
+    fleet.y[id] = y;
+    fleet.fishCarried[id] = fishCarried;
+    fleet.moving[id] = moving;
+  }
+
+  /** Returns the current state as an index in the fisher's Q-table */
+  public int getStateIndex() {
+    return tdf.stateIndex(fleet.x[id], fleet.y[id], isHoldFull());
   }
 
   public Fisher(final SimState state) {
     tdf = (TDFishers)state;
-    tdf.fishersGrid.setObjectLocation(this, new Int2D(tdf.portLocation));
-    learning = new Learning(
-      tdf.possibleStates, makeActions(), this::getFisherState,
-      tdf.getEpsilon(), tdf.getAlpha(), tdf.getGamma(), tdf.random
-    );
+    fleet = tdf.fleet;
+    id = fleet.add(tdf.portLocation.x, tdf.portLocation.y); // everyone starts at port
+    maxX = tdf.ocean.getWidth() - 1;
+    maxY = tdf.ocean.getHeight() - 1;
+    portCell = tdf.ocean.index(tdf.portLocation.x, tdf.portLocation.y);
+    // With tile coding, the "states" of the table are features
+    FisherFeatures features = tdf.isTileCoding() ? new FisherFeatures(tdf, this) : null;
+    int numStates = features != null ? features.getNumFeatures() : tdf.numStates();
+    QTable qTable =
+      tdf.isFleetLearning() ? tdf.fleetQTable(numStates, NUM_ACTIONS) :
+      tdf.isLazyQTables() ?
+        new SparseQTable(numStates, NUM_ACTIONS, tdf.getInitialQValue()) :
+        new DenseQTable(numStates, NUM_ACTIONS, tdf.getInitialQValue());
+    // Each fisher draws from its own stream, derived from the simulation's
+    // seed and our id, so what it draws doesn't depend on the other fishers
+    // or on how they're stepped.
+    MersenneTwisterFast rng = RandomStreams.generator(tdf.seed(), id);
+    metrics = tdf.metrics;
+    recorder = tdf.recorder;
+    learning = features != null ?
+      new TileCodingLearning(
+        qTable, this::perform, features, features.getNumActive(),
+        tdf.getEpsilon(), tdf.getAlpha(), tdf.getGamma(),
+        tdf.getLambda(), tdf.getTraceCutoff(), tdf.isReplacingTraces(), rng
+      ) :
+      new IndexedLearning(
+        qTable, this::perform, this::getStateIndex,
+        tdf.getEpsilon(), tdf.getAlpha(), tdf.getGamma(),
+        tdf.getLambda(), tdf.getTraceCutoff(), tdf.isReplacingTraces(), rng
+      );
+    if (tdf.isTrackConvergence())
+      learning.setConvergenceStats(new ConvergenceStats(tdf.getConvergenceHorizon()));
   }
 
   public void step(final SimState state) {
-    // let the learning algorithm handle everything...
-    learning.act();
+    if (metrics == null && recorder == null) {
+      // let the learning algorithm handle everything...
+      learning.act();
+      return;
+    }
+    // ...or do the same, one half at a time, so that we can see what we do
+    boolean timed = metrics != null && metrics.isSampling();
+    long start = timed ? System.nanoTime() : 0L;
+    finishAction(perform(startAction()));
+    if (timed) metrics.time(Metrics.Phase.FISHERS, System.nanoTime() - start);
+  }
+
+  // The following methods let a `FleetStepper` split the learning step in
+  // two, so that the actions of all fishers can be resolved together.
+
+  int startAction() {
+    int action = learning.startAction();
+    if (metrics != null) {
+      if (action != STAY_PUT) metrics.countMove();
+      else if (isAtPort()) metrics.countHoldEmpty();
+      else metrics.countTrawl();
+    }
+    if (recorder != null) recorder.recordAction(id, action);
+    return action;
+  }
+
+  void finishAction(double reward) {
+    if (recorder != null) recorder.recordReward(id, reward);
+    learning.finishAction(reward);
+    if (metrics != null) metrics.countDecision(learning.isNextActionRandom());
+  }
+
+  void prepareUpdate(double reward) {
+    if (recorder != null) recorder.recordReward(id, reward);
+    learning.prepareUpdate(reward);
+    if (metrics != null) metrics.countDecision(learning.isNextActionRandom());
+  }
+
+  void commitUpdate() {
+    learning.commitUpdate();
   }
 
 }
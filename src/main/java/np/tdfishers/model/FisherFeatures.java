@@ -0,0 +1,67 @@
+package np.tdfishers.model;
+
+import np.tdfishers.learning.FeatureSupplier;
+import np.tdfishers.learning.TileCoder;
+
+/**
+  The features that describe a fisher's state when tile coding is on:
+
+  - tiles over where the fisher is, for each state of its hold, which let
+    it generalise over neighbouring cells;
+  - tiles over how far it is from port, for each state of its hold, which
+    let it generalise over cells that are about as far;
+  - one of four features for being at port or not, with a full hold or
+    not, since emptying the hold only works in that one cell.
+
+  Tiles are `tileSize` cells wide, so the number of features only grows
+  with the size of the ocean divided by that.
+*/
+public class FisherFeatures implements FeatureSupplier {
+
+  private final TDFishers tdf;
+  private final Fisher fisher;
+  private final double tileSize;
+  private final TileCoder cellTiles;
+  private final TileCoder distanceTiles;
+  private final double[] cellInput = new double[3];
+  private final double[] distanceInput = new double[2];
+
+  public FisherFeatures(TDFishers tdf, Fisher fisher) {
+    this.tdf = tdf;
+    this.fisher = fisher;
+    this.tileSize = tdf.getTileSize();
+    int width = tdf.ocean.getWidth();
+    int height = tdf.ocean.getHeight();
+    double maxDistance = Math.sqrt((double) (width - 1) * (width - 1) + (double) (height - 1) * (height - 1));
+    cellTiles = new TileCoder(tdf.getNumTilings(),
+      (int) Math.ceil(width / tileSize), (int) Math.ceil(height / tileSize), 1);
+    distanceTiles = new TileCoder(tdf.getNumTilings(),
+      (int) Math.ceil(maxDistance / tileSize), 1);
+  }
+
+  /** The number of features that are active in any state */
+  public int getNumActive() {
+    return cellTiles.getNumTilings() + distanceTiles.getNumTilings() + 1;
+  }
+
+  /** The number of distinct features */
+  public int getNumFeatures() {
+    return cellTiles.getNumFeatures() + distanceTiles.getNumFeatures() + 4;
+  }
+
+  public void getFeatures(int[] features) {
+    int hold = fisher.isHoldFull() ? 1 : 0;
+    cellInput[0] = fisher.getX() / tileSize;
+    cellInput[1] = fisher.getY() / tileSize;
+    cellInput[2] = hold;
+    cellTiles.getFeatures(cellInput, features, 0, 0);
+    distanceInput[0] = fisher.getDistanceToPort() / tileSize;
+    distanceInput[1] = hold;
+    int n = cellTiles.getNumTilings();
+    distanceTiles.getFeatures(distanceInput, features, n, cellTiles.getNumFeatures());
+    features[n + distanceTiles.getNumTilings()] =
+      cellTiles.getNumFeatures() + distanceTiles.getNumFeatures() +
+      (fisher.isAtPort() ? 2 : 0) + hold;
+  }
+
+}
@@ -0,0 +1,59 @@
+package np.tdfishers.model;
+
+import java.util.List;
+import sim.field.grid.SparseGrid2D;
+
+/**
+  Where each fisher is, how much fish it carries and whether it's moving,
+  kept in a few flat arrays indexed by the fishers' ids. This is where the
+  fishers' positions really live: looking one up is an array access instead
+  of a hash lookup in a `SparseGrid2D`, and moving doesn't touch any hash
+  map or bag. The fishers' grid, which MASON's portrayals need, is only
+  brought up to date when `copyTo` is called.
+*/
+public class Fleet {
+
+  // package-private so that fishers and the fleet stepper can go straight to them
+  final int[] x;
+  final int[] y;
+  final double[] fishCarried;
+  final boolean[] moving;
+  private int size = 0;
+
+  public Fleet(int capacity) {
+    x = new int[capacity];
+    y = new int[capacity];
+    fishCarried = new double[capacity];
+    moving = new boolean[capacity];
+  }
+
+  /** Adds a fisher, with an empty hold and not moving, and returns its id */
+  int add(int x, int y) {
+    int id = size++;
+    this.x[id] = x;
+    this.y[id] = y;
+    return id;
+  }
+
+  public int size() { return size; }
+
+  public int getX(int id) { return x[id]; }
+  public int getY(int id) { return y[id]; }
+  public double getFishCarried(int id) { return fishCarried[id]; }
+  public boolean isMoving(int id) { return moving[id]; }
+
+  /** Puts a fisher somewhere, e.g. when replaying a recorded trajectory */
+  public void set(int id, int x, int y, double fishCarried, boolean moving) {
+    this.x[id] = x;
+    this.y[id] = y;
+    this.fishCarried[id] = fishCarried;
+    this.moving[id] = moving;
+  }
+
+  /** Puts each fisher of the list (in id order) at its location on a grid */
+  public void copyTo(SparseGrid2D grid, List<Fisher> fishers) {
+    for (int id = 0; id < fishers.size(); id++)
+      grid.setObjectLocation(fishers.get(id), x[id], y[id]);
+  }
+
+}
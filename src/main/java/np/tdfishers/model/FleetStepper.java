@@ -0,0 +1,120 @@
+package np.tdfishers.model;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import np.tdfishers.observation.Metrics;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+  Steps the whole fleet at once instead of scheduling each fisher on its
+  own. This happens in three phases:
+
+  1. In parallel, each fisher observes its state and picks its action.
+  2. Sequentially, the actions are carried out. This is where fishers could
+     get in each other's way, so the trawlers sharing a cell are dealt with
+     together: they catch, as a group, what they would have caught by
+     trawling one after the other, and split that evenly among themselves.
+  3. In parallel, each fisher gets its reward, observes its new state and
+     updates its action values. When the fishers learn as a fleet, they
+     only compute their updates in parallel, and the updates are then
+     written to the shared table in a fixed order.
+
+  Nothing in this depends on the order in which the fishers are processed
+  or on how the work is split between threads, so results are reproducible
+  for a given seed. Fishers need their own random number generators for
+  that to be true, which they get from `RandomStreams`.
+*/
+public class FleetStepper implements Steppable {
+
+  private final Fisher[] fishers;
+  private final int[] actions;
+  private final double[] rewards;
+  private final long[] trawls; // cell index in the high bits, fisher index in the low bits
+
+  public FleetStepper(List<Fisher> fishers) {
+    this.fishers = fishers.toArray(new Fisher[0]);
+    actions = new int[this.fishers.length];
+    rewards = new double[this.fishers.length];
+    trawls = new long[this.fishers.length];
+  }
+
+  public void step(SimState state) {
+    TDFishers tdf = (TDFishers)state;
+    Metrics metrics = tdf.metrics;
+    if (metrics == null || !metrics.isSampling()) {
+      stepFleet(tdf);
+    } else {
+      long start = System.nanoTime();
+      stepFleet(tdf);
+      metrics.time(Metrics.Phase.FISHERS, System.nanoTime() - start);
+    }
+  }
+
+  private void stepFleet(TDFishers tdf) {
+    inParallel(tdf, i -> actions[i] = fishers[i].startAction());
+    resolveActions(fishers, 0, fishers.length, actions, rewards, trawls,
+      tdf.ocean.buffer(), tdf.getCatchability());
+    if (tdf.isFleetLearning()) {
+      // The fishers' updates all go to the same table, so we only read from
+      // it in parallel and write to it in a fixed order.
+      inParallel(tdf, i -> fishers[i].prepareUpdate(rewards[i]));
+      for (Fisher fisher : fishers) fisher.commitUpdate();
+    } else {
+      inParallel(tdf, i -> fishers[i].finishAction(rewards[i]));
+    }
+  }
+
+  private void inParallel(TDFishers tdf, IntConsumer f) {
+    tdf.forkJoinPool().submit(() ->
+      IntStream.range(0, fishers.length).parallel().forEach(f)
+    ).join();
+  }
+
+  /**
+    Carries out the actions of fishers `from` to `to` (excluded) and puts
+    their rewards in `rewards`, both indexed like `fishers`. Trawlers
+    catch what they catch out of `cells`, the biomass of their ocean (see
+    `Ocean`), and `trawls` is room to work in. This is the second phase of
+    a step, which a `BatchEngine` also does for each of its simulations.
+  */
+  static void resolveActions(Fisher[] fishers, int from, int to, int[] actions,
+    double[] rewards, long[] trawls, DoubleBuffer cells, double catchability) {
+    int end = from;
+    for (int i = from; i < to; i++) {
+      Fisher fisher = fishers[i];
+      if (actions[i] == Fisher.STAY_PUT && !fisher.isAtPort() && !fisher.isHoldFull()) {
+        // trawling is dealt with below, once we know who shares which cell
+        trawls[end++] = ((long) fisher.getCell() << 32) | i;
+      } else {
+        // moving, emptying the hold, or trawling for nothing with a full hold
+        rewards[i] = fisher.perform(actions[i]);
+      }
+    }
+    Arrays.sort(trawls, from, end); // groups trawlers by cell
+    int start = from;
+    while (start < end) {
+      int cell = (int) (trawls[start] >>> 32);
+      int stop = start + 1;
+      while (stop < end && (int) (trawls[stop] >>> 32) == cell) stop++;
+      int n = stop - start;
+      double fishHere = cells.get(cell);
+      double share = n == 1 ?
+        fishHere * catchability :
+        fishHere * (1.0 - Math.pow(1.0 - catchability, n)) / n;
+      double fishCaught = 0.0;
+      for (int t = start; t < stop; t++) {
+        Fisher fisher = fishers[(int) trawls[t]];
+        double caught = Math.min(share, fisher.getSpaceInHold());
+        rewards[(int) trawls[t]] = fisher.landCatch(caught);
+        fishCaught += caught;
+      }
+      cells.put(cell, fishHere - fishCaught);
+      start = stop;
+    }
+  }
+
+}
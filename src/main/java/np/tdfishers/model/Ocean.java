@@ -0,0 +1,258 @@
+package np.tdfishers.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import sim.field.grid.DoubleGrid2D;
+
+/**
+  The biomass of every cell in the ocean, stored row after row in a single
+  contiguous buffer (the cell at `x, y` is at index `y * width + x`). The
+  buffer can either live on the heap or, for really big oceans, off-heap.
+
+  A second buffer of the same size is kept around so that diffusion can be
+  done synchronously: we read from one buffer, write to the other, and swap
+  them. Logistic growth can be applied during that same sweep, so that when
+  both processes happen on the same tick, we only go through memory once.
+
+  MASON portrayals need a `DoubleGrid2D`, which `copyTo` can fill.
+*/
+public class Ocean {
+
+  /** Oceans with fewer cells than this are not worth processing in parallel */
+  public static final int PARALLEL_THRESHOLD = 128 * 128;
+
+  private final int width;
+  private final int height;
+  private final boolean offHeap;
+  private DoubleBuffer cells;
+  private DoubleBuffer nextCells;
+
+  public Ocean(int width, int height, double initialBiomass, boolean offHeap) {
+    this.width = width;
+    this.height = height;
+    this.offHeap = offHeap;
+    cells = allocate(width * height, offHeap);
+    nextCells = allocate(width * height, offHeap);
+    for (int i = 0; i < cells.capacity(); i++) cells.put(i, initialBiomass);
+  }
+
+  public Ocean(int width, int height, double initialBiomass) {
+    this(width, height, initialBiomass, false);
+  }
+
+  /** Returns a new (on-heap) ocean holding a copy of the values of a matrix */
+  public static Ocean of(double[][] field) {
+    Ocean ocean = new Ocean(field.length, field.length == 0 ? 0 : field[0].length, 0.0);
+    for (int x = 0; x < ocean.width; x++)
+      for (int y = 0; y < ocean.height; y++)
+        ocean.set(x, y, field[x][y]);
+    return ocean;
+  }
+
+  private static DoubleBuffer allocate(int size, boolean offHeap) {
+    return offHeap ?
+      ByteBuffer.allocateDirect(size * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer() :
+      DoubleBuffer.allocate(size);
+  }
+
+  public int getWidth() { return width; }
+  public int getHeight() { return height; }
+  public int size() { return width * height; }
+  public boolean isOffHeap() { return offHeap; }
+
+  public int index(int x, int y) { return y * width + x; }
+
+  public double get(int i) { return cells.get(i); }
+  public void set(int i, double biomass) { cells.put(i, biomass); }
+
+  public double get(int x, int y) { return cells.get(index(x, y)); }
+  public void set(int x, int y, double biomass) { cells.put(index(x, y), biomass); }
+
+  /** The cells themselves, for the fleet stepper; a different buffer after each diffusion */
+  DoubleBuffer buffer() { return cells; }
+
+  public double total() {
+    double total = 0.0;
+    for (int i = 0; i < cells.capacity(); i++) total += cells.get(i);
+    return total;
+  }
+
+  public double[] toArray() {
+    double[] a = new double[size()];
+    for (int i = 0; i < a.length; i++) a[i] = cells.get(i);
+    return a;
+  }
+
+  /** Copies the ocean in a matrix indexed by `[x][y]` */
+  public void copyTo(double[][] field) {
+    for (int x = 0; x < width; x++) {
+      double[] column = field[x];
+      for (int y = 0; y < height; y++) column[y] = cells.get(index(x, y));
+    }
+  }
+
+  public void copyTo(DoubleGrid2D grid) {
+    copyTo(grid.field);
+  }
+
+  /** Copies the ocean, row after row, in a buffer */
+  public void copyTo(DoubleBuffer buffer) {
+    buffer.put((DoubleBuffer) cells.duplicate().clear());
+  }
+
+  /** Replaces the biomass of every cell by values read from a buffer, as written by `copyTo` */
+  public void copyFrom(DoubleBuffer buffer) {
+    DoubleBuffer source = buffer.duplicate();
+    source.limit(source.position() + size());
+    cells.duplicate().put(source);
+    buffer.position(source.position());
+  }
+
+  /** Applies logistic growth to every cell */
+  public void grow(double r, double k) {
+    for (int i = 0; i < cells.capacity(); i++)
+      cells.put(i, Biology.newBiomass(cells.get(i), r, k));
+  }
+
+  /**
+    Diffusion the old way: each cell is paired with the cell on the right
+    and the cell below, in place, going through the cells column by column.
+    This is there to reproduce the results of `Diffuser.diffuseAll`.
+  */
+  public void diffuseSequentially(double m) {
+    diffuseSequentially(m, cells, width, height);
+  }
+
+  /** The same as `diffuseSequentially`, on an ocean kept in an array, row after row */
+  public static void diffuseSequentially(double m, double[] cells, int width, int height) {
+    diffuseSequentially(m, DoubleBuffer.wrap(cells), width, height);
+  }
+
+  private static void diffuseSequentially(double m, DoubleBuffer cells, int width, int height) {
+    for (int x = 0; x < width; x++)
+      for (int y = 0; y < height; y++) {
+        int i = y * width + x;
+        if (x + 1 < width ) exchange(cells, m, i, i + 1);
+        if (y + 1 < height) exchange(cells, m, i, i + width);
+      }
+  }
+
+  private static void exchange(DoubleBuffer cells, double m, int i, int j) {
+    double transfer = m * (cells.get(i) - cells.get(j));
+    cells.put(i, cells.get(i) - transfer);
+    cells.put(j, cells.get(j) + transfer);
+  }
+
+  /**
+    Synchronous diffusion: the fish exchanged between each pair of von
+    Neumann neighbours only depends on the biomass at the previous tick.
+    If `grow` is true, logistic growth is applied to the result in the same
+    sweep. Big oceans are split in bands of rows processed in parallel in
+    the given pool (if any); since cells don't depend on each other's new
+    values, the result is the same whatever the number of threads.
+  */
+  public void diffuse(double m, boolean grow, double r, double k, ForkJoinPool pool) {
+    DoubleBuffer from = cells;
+    DoubleBuffer to = nextCells;
+    if (pool == null || pool.getParallelism() == 1 || size() < PARALLEL_THRESHOLD) {
+      diffuseRows(m, grow, r, k, from, to, width, height, 0, height);
+    } else {
+      int bands = Math.min(height, pool.getParallelism() * 4); // a few per thread, for balance
+      pool.submit(() ->
+        IntStream.range(0, bands).parallel().forEach(band ->
+          diffuseRows(m, grow, r, k, from, to, width, height,
+            (int) ((long) height * band / bands),
+            (int) ((long) height * (band + 1) / bands))
+        )
+      ).join();
+    }
+    cells = to;
+    nextCells = from;
+  }
+
+  public void diffuse(double m, ForkJoinPool pool) {
+    diffuse(m, false, 0.0, 0.0, pool);
+  }
+
+  /**
+    The same as `diffuse`, on an ocean kept in an array, row after row: the
+    new biomass goes to `to`, which must be as big as `from`. This is how a
+    `BatchEngine` diffuses the oceans it keeps in arrays of its own.
+  */
+  public static void diffuse(double m, boolean grow, double r, double k,
+    double[] from, double[] to, int width, int height) {
+    diffuseRows(m, grow, r, k, DoubleBuffer.wrap(from), DoubleBuffer.wrap(to), width, height, 0, height);
+  }
+
+  private static void diffuseRows(double m, boolean grow, double r, double k,
+    DoubleBuffer from, DoubleBuffer to, int width, int height, int firstRow, int endRow) {
+    // On-heap buffers (the default) are plain arrays underneath, and going
+    // straight to those is faster: in `OceanBenchmark`, on a 1000 by 1000
+    // ocean, about 10% for diffusion and 50% for diffusion with growth.
+    if (from.hasArray() && to.hasArray() && from.arrayOffset() == 0 && to.arrayOffset() == 0)
+      diffuseRows(m, grow, r, k, from.array(), to.array(), width, height, firstRow, endRow);
+    else
+      diffuseBufferRows(m, grow, r, k, from, to, width, height, firstRow, endRow);
+  }
+
+  // The two versions below are the same, on an array and on a buffer. Each
+  // row is diffused in one loop and then, if need be, grown in another while
+  // it's still in the cache, so neither loop has a branch in it.
+
+  private static void diffuseRows(double m, boolean grow, double r, double k,
+    double[] from, double[] to, int width, int height, int firstRow, int endRow) {
+    int last = width - 1;
+    for (int y = firstRow; y < endRow; y++) {
+      int row = y * width;
+      // At the edges, a cell is its own neighbour, so nothing gets exchanged.
+      int above = y > 0 ? row - width : row;
+      int below = y + 1 < height ? row + width : row;
+      if (last == 0) {
+        double v = from[row];
+        to[row] = diffused(m, v, v, v, from[above], from[below]);
+      } else {
+        to[row] = diffused(m, from[row], from[row], from[row + 1], from[above], from[below]);
+        for (int x = 1; x < last; x++)
+          to[row + x] = diffused(m, from[row + x],
+            from[row + x - 1], from[row + x + 1], from[above + x], from[below + x]);
+        to[row + last] = diffused(m, from[row + last],
+          from[row + last - 1], from[row + last], from[above + last], from[below + last]);
+      }
+      if (grow)
+        for (int i = row; i <= row + last; i++) to[i] = Biology.newBiomass(to[i], r, k);
+    }
+  }
+
+  private static void diffuseBufferRows(double m, boolean grow, double r, double k,
+    DoubleBuffer from, DoubleBuffer to, int width, int height, int firstRow, int endRow) {
+    int last = width - 1;
+    for (int y = firstRow; y < endRow; y++) {
+      int row = y * width;
+      int above = y > 0 ? row - width : row;
+      int below = y + 1 < height ? row + width : row;
+      if (last == 0) {
+        double v = from.get(row);
+        to.put(row, diffused(m, v, v, v, from.get(above), from.get(below)));
+      } else {
+        to.put(row, diffused(m, from.get(row),
+          from.get(row), from.get(row + 1), from.get(above), from.get(below)));
+        for (int x = 1; x < last; x++)
+          to.put(row + x, diffused(m, from.get(row + x),
+            from.get(row + x - 1), from.get(row + x + 1), from.get(above + x), from.get(below + x)));
+        to.put(row + last, diffused(m, from.get(row + last),
+          from.get(row + last - 1), from.get(row + last), from.get(above + last), from.get(below + last)));
+      }
+      if (grow)
+        for (int i = row; i <= row + last; i++) to.put(i, Biology.newBiomass(to.get(i), r, k));
+    }
+  }
+
+  /** The biomass of a cell after diffusion, given its own and its neighbours' biomass */
+  private static double diffused(double m, double v, double left, double right, double above, double below) {
+    return v + m * ((left - v) + (right - v) + (above - v) + (below - v));
+  }
+
+}
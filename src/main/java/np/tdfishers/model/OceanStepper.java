@@ -0,0 +1,45 @@
+package np.tdfishers.model;
+
+import np.tdfishers.observation.Metrics;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+  Runs the ocean's processes: diffusion every day and biology every year.
+  Since a year is a whole number of days, growth always happens on a day
+  when fish also diffuse, and with synchronous diffusion, both are done
+  in a single sweep through the ocean (diffusion first, then growth).
+
+  When metrics are collected, this is timed every time it runs, sampled
+  step or not (see `Metrics`). The time spent in the sweep is counted as
+  diffusion; growth only gets timed on its own in the sequential case.
+*/
+public class OceanStepper implements Steppable {
+
+  public void step(SimState state) {
+    TDFishers tdf = (TDFishers)state;
+    boolean grow = tdf.schedule.getTime() % TDFishers.YEAR == 0.0;
+    Metrics metrics = tdf.metrics;
+    if (metrics != null) {
+      long start = System.nanoTime();
+      if (tdf.isSynchronousDiffusion()) {
+        tdf.ocean.diffuse(tdf.getM(), grow, tdf.getR(), tdf.getK(), tdf.forkJoinPool());
+        metrics.time(Metrics.Phase.DIFFUSION, System.nanoTime() - start);
+      } else {
+        tdf.ocean.diffuseSequentially(tdf.getM());
+        long diffused = System.nanoTime();
+        metrics.time(Metrics.Phase.DIFFUSION, diffused - start);
+        if (grow) {
+          tdf.ocean.grow(tdf.getR(), tdf.getK());
+          metrics.time(Metrics.Phase.GROWTH, System.nanoTime() - diffused);
+        }
+      }
+    } else if (tdf.isSynchronousDiffusion()) {
+      tdf.ocean.diffuse(tdf.getM(), grow, tdf.getR(), tdf.getK(), tdf.forkJoinPool());
+    } else {
+      tdf.ocean.diffuseSequentially(tdf.getM());
+      if (grow) tdf.ocean.grow(tdf.getR(), tdf.getK());
+    }
+  }
+
+}
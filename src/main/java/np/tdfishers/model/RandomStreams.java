@@ -0,0 +1,47 @@
+package np.tdfishers.model;
+
+import ec.util.MersenneTwisterFast;
+
+/**
+  Independent streams of random numbers, all derived from a master seed.
+  Stream seeds are outputs of a SplitMix64 generator started at the master
+  seed, which (unlike seeds drawn one after the other from a shared
+  generator) can be computed directly: the seed of a stream only depends on
+  the master seed and on the stream's number, never on which streams were
+  created before it, in what order or on which thread. SplitMix64 is also
+  what `java.util.SplittableRandom` uses to split itself, and its outputs
+  make good, unrelated seeds even for consecutive stream numbers.
+
+  Each fisher gets the stream numbered after its id, so its random numbers
+  are the same however the fleet is stepped, and `Runner` uses the same
+  derivation for the seeds of its runs.
+*/
+public final class RandomStreams {
+
+  private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+  private RandomStreams() {}
+
+  /** The seed of stream `stream` (the SplitMix64 output for it) */
+  public static long seed(long masterSeed, long stream) {
+    return mix64(masterSeed + (stream + 1) * GOLDEN_GAMMA);
+  }
+
+  /**
+    A generator for stream `stream`. Mersenne Twister only takes 32 bits
+    from a `long` seed, so it gets seeded with the 128 bits of two
+    consecutive outputs instead.
+  */
+  public static MersenneTwisterFast generator(long masterSeed, long stream) {
+    long a = seed(masterSeed, 2 * stream);
+    long b = seed(masterSeed, 2 * stream + 1);
+    return new MersenneTwisterFast(new int[] { (int) a, (int) (a >>> 32), (int) b, (int) (b >>> 32) });
+  }
+
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+}
@@ -0,0 +1,22 @@
+package np.tdfishers.model;
+
+import sim.engine.Schedule;
+
+/**
+  A MASON schedule whose clock can be set, so that a simulation restored
+  from a checkpoint carries on from where it was saved instead of going
+  back to the epoch.
+*/
+public class ResumableSchedule extends Schedule {
+
+  /**
+    Empties the schedule and sets its clock. The caller is then expected to
+    schedule things again from the next step on.
+  */
+  public synchronized void resume(double time, long steps) {
+    clear();
+    this.time = time;
+    this.steps = steps;
+  }
+
+}
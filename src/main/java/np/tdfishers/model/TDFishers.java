@@ -1,21 +1,36 @@
 package np.tdfishers.model;
 
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.ToDoubleFunction;
 import java.util.stream.Stream;
-import java.util.stream.IntStream;
+import np.tdfishers.learning.ConvergenceStats;
+import np.tdfishers.learning.QTable;
+import np.tdfishers.learning.SharedQTable;
+import np.tdfishers.observation.CsvSink;
+import np.tdfishers.observation.JsonSink;
+import np.tdfishers.observation.Metrics;
+import np.tdfishers.observation.Probe;
+import np.tdfishers.observation.SampleSink;
+import np.tdfishers.observation.TrajectoryRecorder;
+import sim.engine.Schedule;
 import sim.engine.SimState;
 import sim.field.grid.DoubleGrid2D;
 import sim.field.grid.SparseGrid2D;
-import sim.util.Int2D;
 import sim.util.MutableInt2D;
 
 import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toSet;
-import static java.util.function.Function.identity;
 
 public class TDFishers extends SimState {
 
+  // Our time steps are hours
+  public static final double DAY = 24.0;
+  public static final double YEAR = DAY * 365.0;
+
   // Map parameters
 
   private int gridHeight = 25;
@@ -42,6 +57,11 @@ public class TDFishers extends SimState {
   public double getM() { return m; }
   public void setM(double val) { if (val > 0.0) m = val; }
 
+  // when off, fish spread in the old, biased, one-cell-at-a-time way
+  private boolean synchronousDiffusion = true;
+  public boolean isSynchronousDiffusion() { return synchronousDiffusion; }
+  public void setSynchronousDiffusion(boolean val) { synchronousDiffusion = val; }
+
   // Fisher parameters
 
   private int numFishers = 200;
@@ -74,6 +94,106 @@ public class TDFishers extends SimState {
   public boolean isRewardDelayed() { return rewardDelayed; }
   public void setRewardDelayed(boolean val) { rewardDelayed = val; }
 
+  private double initialQValue = 0.0; // the value of actions never tried before
+  public double getInitialQValue() { return initialQValue; }
+  public void setInitialQValue(double val) { initialQValue = val; }
+
+  // when on, a fisher's action values are only allocated for the states it
+  // actually visits, which is a must for big oceans
+  private boolean lazyQTables = false;
+  public boolean isLazyQTables() { return lazyQTables; }
+  public void setLazyQTables(boolean val) { lazyQTables = val; }
+
+  // when on, all fishers learn from, and update, a single shared Q-table
+  private boolean fleetLearning = false;
+  public boolean isFleetLearning() { return fleetLearning; }
+  public void setFleetLearning(boolean val) { fleetLearning = val; }
+
+  // when on, fishers describe their state with tile-coded features instead of
+  // having a value for each state, which is what makes big oceans learnable
+  private boolean tileCoding = false;
+  public boolean isTileCoding() { return tileCoding; }
+  public void setTileCoding(boolean val) { tileCoding = val; }
+
+  private int numTilings = 8; // the number of overlapping tilings
+  public int getNumTilings() { return numTilings; }
+  public void setNumTilings(int val) { if (val > 0) numTilings = val; }
+
+  private double tileSize = 5.0; // the width of a tile, in cells
+  public double getTileSize() { return tileSize; }
+  public void setTileSize(double val) { if (val > 0.0) tileSize = val; }
+
+  // decay rate of the eligibility traces: at 0, fishers use plain SARSA,
+  // and above that, SARSA(lambda), which gets delayed rewards back to the
+  // steps that led to them faster
+  private double lambda = 0.0;
+  public double getLambda() { return lambda; }
+  public void setLambda(double val) { if (val >= 0.0 && val <= 1.0) lambda = val; }
+
+  private double traceCutoff = 0.01; // the smallest eligibility trace worth keeping
+  public double getTraceCutoff() { return traceCutoff; }
+  public void setTraceCutoff(double val) { if (val > 0.0 && val < 1.0) traceCutoff = val; }
+
+  // when on, revisiting a state and action resets its trace instead of adding to it
+  private boolean replacingTraces = true;
+  public boolean isReplacingTraces() { return replacingTraces; }
+  public void setReplacingTraces(boolean val) { replacingTraces = val; }
+
+  // when on, fishers keep track of how much they're still learning
+  // (see `getTdError()` and `getPolicyChangeRate()`)
+  private boolean trackConvergence = false;
+  public boolean isTrackConvergence() { return trackConvergence; }
+  public void setTrackConvergence(boolean val) { trackConvergence = val; }
+
+  private int convergenceHorizon = 1000; // the number of steps over which that is averaged
+  public int getConvergenceHorizon() { return convergenceHorizon; }
+  public void setConvergenceHorizon(int val) { if (val > 0) convergenceHorizon = val; }
+
+  // Performance parameters
+
+  // when on, the fleet is stepped as a whole, using several threads
+  private boolean parallelStepping = false;
+  public boolean isParallelStepping() { return parallelStepping; }
+  public void setParallelStepping(boolean val) { parallelStepping = val; }
+
+  // when on, the ocean's biomass is stored outside of the Java heap
+  private boolean offHeapOcean = false;
+  public boolean isOffHeapOcean() { return offHeapOcean; }
+  public void setOffHeapOcean(boolean val) { offHeapOcean = val; }
+
+  // the number of threads for the simulation's own parallel work (stepping
+  // the fleet, diffusing fish); runs done side by side should share the
+  // processors between them (see `Runner.threadsPerRun`)
+  private int threads = Runtime.getRuntime().availableProcessors();
+  public int getThreads() { return threads; }
+  public void setThreads(int val) { if (val > 0) threads = val; }
+
+  // when on, the simulation keeps track of where the time goes and of what
+  // the fishers do (see `getMetrics()`)
+  private boolean collectMetrics = false;
+  public boolean isCollectMetrics() { return collectMetrics; }
+  public void setCollectMetrics(boolean val) { collectMetrics = val; }
+
+  private int metricsInterval = 100; // the number of steps between two timed steps
+  public int getMetricsInterval() { return metricsInterval; }
+  public void setMetricsInterval(int val) { if (val > 0) metricsInterval = val; }
+
+  // where to write the metrics every `metricsInterval` steps: JSON lines if the
+  // name ends with ".json", CSV otherwise, and nowhere if it's empty
+  private String metricsFile = "";
+  public String getMetricsFile() { return metricsFile; }
+  public void setMetricsFile(String val) { metricsFile = val == null ? "" : val.trim(); }
+
+  // where to record what every fisher does at every step, for replay or
+  // analysis (see `TrajectoryReader`); nowhere if it's empty
+  private String trajectoryFile = "";
+  public String getTrajectoryFile() { return trajectoryFile; }
+  public void setTrajectoryFile(String val) { trajectoryFile = val == null ? "" : val.trim(); }
+
+  private int trajectoryOceanInterval = (int) DAY; // the number of steps between two recorded oceans
+  public int getTrajectoryOceanInterval() { return trajectoryOceanInterval; }
+  public void setTrajectoryOceanInterval(int val) { if (val > 0) trajectoryOceanInterval = val; }
+
   // Economic parameters
 
   private double fishPrice = 10.0; // fish price per unit
@@ -94,51 +214,242 @@ public class TDFishers extends SimState {
 
   // ---------------------------------------------------------------------------
 
+  public Ocean ocean;
+
+  /**
+    A copy of the ocean in the form that MASON's portrayals expect. It is
+    only brought up to date when `syncOceanGrid()` is called, which the GUI
+    does once per frame. It has to be a copy: a `DoubleGrid2D` keeps its
+    values in its own `double[][]`, which the portrayals read directly, so
+    it can't be a view of the ocean's flat (and maybe off-heap) buffer.
+    Copying a cell is cheap next to drawing it, and the simulation itself
+    never pays for it.
+  */
   public DoubleGrid2D oceanGrid;
+
+  public void syncOceanGrid() {
+    ocean.copyTo(oceanGrid);
+  }
+
+  public Fleet fleet;
+  public List<Fisher> fishers;
+
+  /**
+    Where the fishers are, in the form that MASON's portrayals expect. The
+    fleet is where positions really live: this is only brought up to date
+    when `syncFishersGrid()` is called.
+  */
   public SparseGrid2D fishersGrid;
-  public Set<FisherState> possibleStates;
+
+  public void syncFishersGrid() {
+    fleet.copyTo(fishersGrid, fishers);
+  }
+
+  /**
+    Feeds every fisher to each of the probes, in a single pass over the
+    fleet, after resetting them. The probes' statistics then describe the
+    current state of the fleet.
+  */
+  public void sample(Probe[] probes) {
+    for (Probe probe : probes) probe.reset();
+    for (int i = 0; i < fishers.size(); i++) {
+      Fisher fisher = fishers.get(i);
+      for (Probe probe : probes) probe.offer(fisher);
+    }
+  }
+
+  /**
+    The average magnitude of the fishers' recent temporal-difference errors,
+    or NaN if convergence isn't being tracked.
+  */
+  public double getTdError() {
+    return meanConvergenceStat(ConvergenceStats::getTdError);
+  }
+
+  /**
+    The average fraction of the fishers' recent updates that changed their
+    policy, or NaN if convergence isn't being tracked.
+  */
+  public double getPolicyChangeRate() {
+    return meanConvergenceStat(ConvergenceStats::getPolicyChangeRate);
+  }
+
+  private double meanConvergenceStat(ToDoubleFunction<ConvergenceStats> stat) {
+    if (fishers == null || fishers.isEmpty()) return Double.NaN;
+    double total = 0.0;
+    for (int i = 0; i < fishers.size(); i++) {
+      ConvergenceStats stats = fishers.get(i).getLearning().getConvergenceStats();
+      if (stats == null) return Double.NaN;
+      total += stat.applyAsDouble(stats);
+    }
+    return total / fishers.size();
+  }
+
+  /** The total number of Q-table rows that the fishers have allocated */
+  public long getQTableRowsAllocated() {
+    return fishers == null ? 0 :
+      fishers.stream().map(Fisher::getQTable).distinct()
+        .mapToLong(QTable::getRowsAllocated).sum();
+  }
+
+  Metrics metrics; // null when metrics are off
+
+  /** What's known about the performance of the simulation, or null if metrics are off */
+  public Metrics getMetrics() { return metrics; }
+
+  private Metrics newMetrics() {
+    if (metricsFile.isEmpty()) return new Metrics(this, metricsInterval, null);
+    try {
+      FileWriter out = new FileWriter(metricsFile);
+      SampleSink sink = metricsFile.endsWith(".json") ?
+        new JsonSink(out, "seed") :
+        new CsvSink(out, "seed", Metrics.columns());
+      return new Metrics(this, metricsInterval, sink);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  TrajectoryRecorder recorder; // null when not recording
+
+  private void closeRecorder() {
+    if (recorder == null) return;
+    try {
+      recorder.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    recorder = null;
+  }
+
+  private QTable fleetQTable;
+
+  /**
+    The Q-table used by every fisher when fleet learning is on (which holds
+    weights for features instead of values for states with tile coding).
+  */
+  QTable fleetQTable(int numStates, int numActions) {
+    if (fleetQTable == null)
+      fleetQTable = new SharedQTable(numStates, numActions, initialQValue);
+    return fleetQTable;
+  }
+
+  /**
+    The states used by the fishers' learning algorithm are just where they
+    are on the map and whether or not their hold is full. We number them so
+    that they can be used as indices in a Q-table.
+  */
+  public int numStates() {
+    return ocean.getWidth() * ocean.getHeight() * 2;
+  }
+
+  public int stateIndex(int x, int y, boolean holdFull) {
+    return ((x * ocean.getHeight()) + y) * 2 + (holdFull ? 1 : 0);
+  }
 
   public TDFishers(long seed) {
     super(seed);
+    schedule = new ResumableSchedule();
   }
 
   public void start() {
 
     super.start(); // clear out the schedule
 
-    // create an ocean, with each cell at 1% of full carrying capacity
-    oceanGrid = new DoubleGrid2D(gridWidth, gridHeight, k);
-    oceanGrid.set(portLocation.x, portLocation.y, 0.0); // no fish at port!
+    // the port is in the middle of the right edge, wherever that is now
+    portLocation.x = gridWidth - 1;
+    portLocation.y = gridHeight / 2;
+
+    // create an ocean, with each cell at full carrying capacity
+    ocean = new Ocean(gridWidth, gridHeight, k, offHeapOcean);
+    ocean.set(portLocation.x, portLocation.y, 0.0); // no fish at port!
+    oceanGrid = new DoubleGrid2D(gridWidth, gridHeight);
+    syncOceanGrid();
+
 
+    // forget what a previous fleet might have learned
+    fleetQTable = null;
+
+    // the fishers find out from this whether they should count what they do
+    closeMetrics();
+    metrics = collectMetrics ? newMetrics() : null;
+    closeRecorder();
+    try {
+      recorder = trajectoryFile.isEmpty() ? null :
+        new TrajectoryRecorder(Paths.get(trajectoryFile), this, trajectoryOceanInterval);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
 
     // create a grid to put our fishers on
     fishersGrid = new SparseGrid2D(gridWidth, gridHeight);
 
-    // build a set of all the possible states that will be used by the fishers'
-    // learning algorithm, which is just where they are on the map and whether
-    // or not their hold is full.
-    possibleStates =
-      IntStream.range(0, fishersGrid.getWidth()).mapToObj(x ->
-        IntStream.range(0, fishersGrid.getHeight()).mapToObj(y ->
-          Stream.of(true, false).map(holdFull ->
-            new FisherState(new Int2D(x, y), holdFull)
-          )
-        ).flatMap(identity()) // woohoo! flatMap in Java! It's awkward but it works...
-      ).flatMap(identity()).collect(toSet());
-
-    // Build a list of fishers and add them to the schedule
-    List<Fisher> fishers = Stream
+    // Build a list of fishers, whose positions are kept by the fleet
+    fleet = new Fleet(numFishers);
+    fishers = Stream
       .generate(() -> new Fisher(this))
       .limit(numFishers)
       .collect(toList());
-    fishers.forEach(schedule::scheduleRepeating);
+    syncFishersGrid();
+
+    scheduleProcesses(Schedule.EPOCH);
+
+  }
+
+  /**
+    Adds the fishers and the ocean's processes to the schedule, starting at
+    a given time (which is later than the epoch when resuming a simulation
+    from a checkpoint).
+  */
+  void scheduleProcesses(double time) {
+    // Metrics decide, before anything else happens, whether a step gets timed
+    if (metrics != null) schedule.scheduleRepeating(time, -1, metrics, 1.0);
+
+    // The fishers act every hour...
+    if (parallelStepping)
+      schedule.scheduleRepeating(time, 0, new FleetStepper(fishers), 1.0);
+    else
+      for (Fisher fisher : fishers) schedule.scheduleRepeating(time, 0, fisher, 1.0);
+
+    // ...and an object moves fish between cells every day and
+    // handles fish regrowth every year
+    double nextDay = Math.ceil(time / DAY) * DAY;
+    schedule.scheduleRepeating(nextDay, 1, new OceanStepper(), DAY);
+
+    // The recorder writes down what happened once everything is done
+    if (recorder != null) schedule.scheduleRepeating(time, 2, recorder, 1.0);
+  }
 
-    // Also schedule a Biology object to handle fish regrowth every year
-    schedule.scheduleRepeating(schedule.EPOCH, 1, new Biology(), 24.0 * 365.0);
+  private transient ForkJoinPool forkJoinPool;
 
-    // And a diffuser object to move fish between cells every day
-    schedule.scheduleRepeating(schedule.EPOCH, 1, new Diffuser(), 24.0);
+  /** The pool in which parallel work gets done, created on first use */
+  ForkJoinPool forkJoinPool() {
+    if (forkJoinPool == null || forkJoinPool.getParallelism() != threads) {
+      shutdownForkJoinPool();
+      forkJoinPool = new ForkJoinPool(threads);
+    }
+    return forkJoinPool;
+  }
+
+  private void shutdownForkJoinPool() {
+    if (forkJoinPool != null) forkJoinPool.shutdown();
+    forkJoinPool = null;
+  }
+
+  private void closeMetrics() {
+    if (metrics == null) return;
+    try {
+      metrics.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 
+  public void finish() {
+    super.finish();
+    shutdownForkJoinPool();
+    closeMetrics();
+    closeRecorder();
   }
 
   public static void main(String[] args) {
@@ -0,0 +1,96 @@
+package np.tdfishers.observation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+  Writes samples in a compact, column-oriented binary format:
+
+  - a header: the magic number `TDFS`, a format version (an int), the
+    number of value columns (an int), and the name of each column (UTF);
+  - then one block per batch: the series label (UTF), the number of rows
+    (an int), the steps of all rows (longs), and then all the values of
+    the first column (doubles), all the values of the second column, etc.
+
+  Everything is big-endian, as written by a `DataOutputStream`.
+  `toCsv` converts such a file back to the CSV produced by `CsvSink`.
+*/
+public class BinarySink implements SampleSink {
+
+  public static final int MAGIC = 0x54444653; // "TDFS"
+  public static final int VERSION = 1;
+
+  private final DataOutputStream out;
+  private final int numColumns;
+
+  public BinarySink(OutputStream out, String... columns) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+    numColumns = columns.length;
+    this.out.writeInt(MAGIC);
+    this.out.writeInt(VERSION);
+    this.out.writeInt(columns.length);
+    for (String column : columns) this.out.writeUTF(column);
+  }
+
+  public void write(String series, SampleBuffer samples) throws IOException {
+    if (samples.getColumns().length != numColumns)
+      throw new IllegalArgumentException(
+        "Expected " + numColumns + " columns but got " + samples.getColumns().length);
+    int rows = samples.getNumRows();
+    out.writeUTF(series);
+    out.writeInt(rows);
+    for (int row = 0; row < rows; row++) out.writeLong(samples.getStep(row));
+    for (int column = 0; column < numColumns; column++)
+      for (int row = 0; row < rows; row++)
+        out.writeDouble(samples.get(row, column));
+  }
+
+  public void flush() throws IOException {
+    out.flush();
+  }
+
+  public void close() throws IOException {
+    out.close();
+  }
+
+  /** Reads a file written by a `BinarySink` and writes its content to a `CsvSink` */
+  public static void toCsv(InputStream in, String seriesName, java.io.Writer csv) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != MAGIC) throw new IOException("Not a TDFishers samples file");
+    int version = data.readInt();
+    if (version != VERSION) throw new IOException("Unsupported samples file version: " + version);
+    String[] columns = new String[data.readInt()];
+    for (int i = 0; i < columns.length; i++) columns[i] = data.readUTF();
+    CsvSink sink = new CsvSink(csv, seriesName, columns);
+    SampleBuffer samples = new SampleBuffer(columns);
+    double[] row = new double[columns.length];
+    while (true) {
+      String series;
+      try {
+        series = data.readUTF();
+      } catch (EOFException e) {
+        break; // no more blocks
+      }
+      int rows = data.readInt();
+      long[] steps = new long[rows];
+      double[][] values = new double[columns.length][rows];
+      for (int r = 0; r < rows; r++) steps[r] = data.readLong();
+      for (int c = 0; c < columns.length; c++)
+        for (int r = 0; r < rows; r++)
+          values[c][r] = data.readDouble();
+      samples.clear();
+      for (int r = 0; r < rows; r++) {
+        for (int c = 0; c < columns.length; c++) row[c] = values[c][r];
+        samples.add(steps[r], row);
+      }
+      sink.write(series, samples);
+    }
+    sink.flush();
+  }
+
+}
@@ -0,0 +1,58 @@
+package np.tdfishers.observation;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+  Writes samples as CSV, with the series label as the first column and the
+  step as the second. Whole batches are formatted in a single buffer before
+  being written out.
+*/
+public class CsvSink implements SampleSink {
+
+  private final Writer out;
+  private final String[] columns;
+  private final StringBuilder buffer = new StringBuilder(1 << 16);
+
+  /**
+    @param out         Where to write.
+    @param seriesName  The header of the series column.
+    @param columns     The headers of the value columns.
+  */
+  public CsvSink(Writer out, String seriesName, String... columns) throws IOException {
+    this.out = out;
+    this.columns = columns;
+    buffer.append(seriesName).append(",step");
+    for (String column : columns) buffer.append(',').append(column);
+    buffer.append('\n');
+  }
+
+  public void write(String series, SampleBuffer samples) throws IOException {
+    if (samples.getColumns().length != columns.length)
+      throw new IllegalArgumentException(
+        "Expected " + columns.length + " columns but got " + samples.getColumns().length);
+    for (int row = 0; row < samples.getNumRows(); row++) {
+      buffer.append(series).append(',').append(samples.getStep(row));
+      for (int column = 0; column < columns.length; column++)
+        buffer.append(',').append(samples.get(row, column));
+      buffer.append('\n');
+      if (buffer.length() >= 1 << 16) drain();
+    }
+  }
+
+  private void drain() throws IOException {
+    out.append(buffer);
+    buffer.setLength(0);
+  }
+
+  public void flush() throws IOException {
+    drain();
+    out.flush();
+  }
+
+  public void close() throws IOException {
+    flush();
+    out.close();
+  }
+
+}
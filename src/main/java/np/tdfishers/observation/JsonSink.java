@@ -0,0 +1,57 @@
+package np.tdfishers.observation;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+  Writes samples as JSON Lines: one object per row, holding the series
+  label, the step, and a field per column. Values that JSON can't represent
+  (NaN and infinities) are written as `null`.
+*/
+public class JsonSink implements SampleSink {
+
+  private final Writer out;
+  private final String seriesName;
+  private final StringBuilder buffer = new StringBuilder(1 << 16);
+
+  /**
+    @param out        Where to write.
+    @param seriesName The name of the series field.
+  */
+  public JsonSink(Writer out, String seriesName) {
+    this.out = out;
+    this.seriesName = seriesName;
+  }
+
+  public void write(String series, SampleBuffer samples) throws IOException {
+    String[] columns = samples.getColumns();
+    for (int row = 0; row < samples.getNumRows(); row++) {
+      buffer.append("{\"").append(seriesName).append("\":\"").append(series).append('"');
+      buffer.append(",\"step\":").append(samples.getStep(row));
+      for (int column = 0; column < columns.length; column++) {
+        double value = samples.get(row, column);
+        buffer.append(",\"").append(columns[column]).append("\":");
+        if (Double.isNaN(value) || Double.isInfinite(value)) buffer.append("null");
+        else buffer.append(value);
+      }
+      buffer.append("}\n");
+      if (buffer.length() >= 1 << 16) drain();
+    }
+  }
+
+  private void drain() throws IOException {
+    out.append(buffer);
+    buffer.setLength(0);
+  }
+
+  public void flush() throws IOException {
+    drain();
+    out.flush();
+  }
+
+  public void close() throws IOException {
+    flush();
+    out.close();
+  }
+
+}
@@ -0,0 +1,204 @@
+package np.tdfishers.observation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.LongAdder;
+import np.tdfishers.model.TDFishers;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+  Where the time goes, and what the fishers are up to, while a simulation
+  runs. This is meant to be cheap enough to leave on:
+
+  - the time spent in the phases that happen on every step (the fishers
+    and the observers) is only measured on one step out of every
+    `interval` (the "sampled" steps), so `System.nanoTime` is not called
+    all the time;
+  - the phases that happen once a day or once a year (diffusion and
+    growth) are rare enough to be timed every time they happen, and each
+    has its own count of runs; sampling them would only catch the days
+    that happen to line up with the interval, which could be all or none
+    of them;
+  - counters are `LongAdder`s, which fishers stepped in parallel can all
+    increment without fighting over a single memory location;
+  - everything else (Q-table rows, heap) is only looked at when read.
+
+  When metrics are off, the model doesn't have a `Metrics` at all, and
+  the only cost is a null check here and there.
+
+  The getters make all of this visible in MASON's inspectors, and
+  `columns` and `getValues` let it be written to a `SampleSink`, like
+  the statistics of a `Probe`. Given a sink, metrics write themselves to
+  it on every sampled step.
+
+  Metrics are stepped before anything else at each step, which is when
+  they decide whether the step is sampled.
+*/
+public class Metrics implements Steppable {
+
+  /** The parts of a step that get timed */
+  public enum Phase {
+    FISHERS(true),    // the fishers acting and learning
+    DIFFUSION(false), // fish spreading (and growing, when both happen in the same sweep)
+    GROWTH(false),    // fish growing, when it's done on its own
+    OBSERVERS(true);  // whatever is watching the simulation (see `Runner`)
+
+    /** Whether the phase happens on every step, and is only timed on sampled steps */
+    public final boolean everyStep;
+
+    Phase(boolean everyStep) { this.everyStep = everyStep; }
+  }
+
+  private static final String[] COLUMNS = {
+    "fishers_ms", "diffusion_ms", "growth_ms", "observers_ms",
+    "moves", "trawls", "hold_empties", "exploration_rate",
+    "q_table_rows", "heap_mb"
+  };
+
+  private final TDFishers tdf;
+  private final int interval;
+  private SampleSink sink; // null if the metrics aren't written anywhere
+  private SampleBuffer samples;
+  private double[] row;
+  private final LongAdder[] nanos = new LongAdder[Phase.values().length];
+  private final LongAdder[] runs = new LongAdder[Phase.values().length]; // of the other phases
+  private final LongAdder moves = new LongAdder();
+  private final LongAdder trawls = new LongAdder();
+  private final LongAdder holdEmpties = new LongAdder();
+  private final LongAdder decisions = new LongAdder();
+  private final LongAdder explorations = new LongAdder();
+  private volatile boolean sampling = false;
+  private volatile long sampledSteps = 0;
+
+  /**
+    @param tdf      The simulation whose metrics these are.
+    @param interval The number of steps between two sampled steps.
+    @param sink     Where to write the metrics on sampled steps, or null.
+  */
+  public Metrics(TDFishers tdf, int interval, SampleSink sink) {
+    this.tdf = tdf;
+    this.interval = interval;
+    this.sink = sink;
+    for (int i = 0; i < nanos.length; i++) {
+      nanos[i] = new LongAdder();
+      runs[i] = new LongAdder();
+    }
+    if (sink != null) {
+      samples = new SampleBuffer(COLUMNS);
+      row = new double[COLUMNS.length];
+    }
+  }
+
+  public static String[] columns() { return COLUMNS.clone(); }
+
+  public void step(SimState state) {
+    beginStep(state.schedule.getSteps());
+  }
+
+  /** Decides whether the step about to be taken is sampled */
+  public void beginStep(long step) {
+    sampling = step % interval == 0;
+    if (!sampling) return;
+    // what happened up to now goes out before we start timing another step
+    if (sink != null && sampledSteps > 0) write(step);
+    sampledSteps++;
+  }
+
+  private void write(long step) {
+    getValues(row, 0);
+    samples.clear();
+    samples.add(step, row);
+    try {
+      sink.write(String.valueOf(tdf.seed()), samples);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Flushes and closes the sink, if any; the metrics can still be read after that */
+  public void close() throws IOException {
+    if (sink == null) return;
+    if (sampledSteps > 0) write(tdf.schedule.getSteps());
+    sink.close();
+    sink = null;
+  }
+
+  /** Whether the current step is sampled, i.e., whether phases that happen every step should be timed */
+  public boolean isSampling() { return sampling; }
+
+  public int getInterval() { return interval; }
+
+  public long getSampledSteps() { return sampledSteps; }
+
+  /**
+    Adds to the time spent in a phase: during the current sampled step for
+    the phases that happen every step, or during one more run of the others.
+  */
+  public void time(Phase phase, long nanoseconds) {
+    nanos[phase.ordinal()].add(nanoseconds);
+    if (!phase.everyStep) runs[phase.ordinal()].increment();
+  }
+
+  /** The number of times a phase was timed: sampled steps, or runs of a daily or yearly phase */
+  public long getRuns(Phase phase) {
+    return phase.everyStep ? sampledSteps : runs[phase.ordinal()].sum();
+  }
+
+  public void countMove() { moves.increment(); }
+  public void countTrawl() { trawls.increment(); }
+  public void countHoldEmpty() { holdEmpties.increment(); }
+
+  /** Counts a fisher choosing its next action, at random or not */
+  public void countDecision(boolean random) {
+    decisions.increment();
+    if (random) explorations.increment();
+  }
+
+  /**
+    The average time spent in a phase, in milliseconds, per step for the
+    phases that happen every step, and per run for the others (i.e., per
+    day for diffusion, per year for growth).
+  */
+  public double getMillisPerStep(Phase phase) {
+    long n = getRuns(phase);
+    return n == 0 ? Double.NaN : nanos[phase.ordinal()].sum() / 1e6 / n;
+  }
+
+  public double getFishersMillisPerStep() { return getMillisPerStep(Phase.FISHERS); }
+  public double getDiffusionMillisPerStep() { return getMillisPerStep(Phase.DIFFUSION); }
+  public double getGrowthMillisPerStep() { return getMillisPerStep(Phase.GROWTH); }
+  public double getObserversMillisPerStep() { return getMillisPerStep(Phase.OBSERVERS); }
+
+  public long getMoves() { return moves.sum(); }
+  public long getTrawls() { return trawls.sum(); }
+  public long getHoldEmpties() { return holdEmpties.sum(); }
+
+  /** The fraction of actions that were chosen at random */
+  public double getExplorationRate() {
+    long n = decisions.sum();
+    return n == 0 ? Double.NaN : (double) explorations.sum() / n;
+  }
+
+  public long getQTableRows() { return tdf.getQTableRowsAllocated(); }
+
+  public double getHeapMegabytes() {
+    Runtime runtime = Runtime.getRuntime();
+    return (runtime.totalMemory() - runtime.freeMemory()) / (1024.0 * 1024.0);
+  }
+
+  /** Writes the current value of every metric to `row`, starting at `offset` */
+  public void getValues(double[] row, int offset) {
+    row[offset] = getFishersMillisPerStep();
+    row[offset + 1] = getDiffusionMillisPerStep();
+    row[offset + 2] = getGrowthMillisPerStep();
+    row[offset + 3] = getObserversMillisPerStep();
+    row[offset + 4] = getMoves();
+    row[offset + 5] = getTrawls();
+    row[offset + 6] = getHoldEmpties();
+    row[offset + 7] = getExplorationRate();
+    row[offset + 8] = getQTableRows();
+    row[offset + 9] = getHeapMegabytes();
+  }
+
+}
@@ -0,0 +1,88 @@
+package np.tdfishers.observation;
+
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import np.tdfishers.model.Fisher;
+
+/**
+  A probe measures some property of the fishers and accumulates running
+  statistics about it, without building any intermediate collection. Many
+  probes can be fed in a single pass over the fleet (see `TDFishers.sample`).
+
+  The statistics of a probe are available as a row of values (count, mean,
+  standard deviation, minimum, maximum and the estimated quantiles), whose
+  column names are given by `getColumns()`.
+*/
+public class Probe {
+
+  private final String name;
+  private final Predicate<Fisher> filter;
+  private final ToDoubleFunction<Fisher> measure;
+  private final RunningStats stats = new RunningStats();
+  private final QuantileSketch[] quantiles;
+
+  /**
+    @param name      A name for the probe, used as a prefix for column names.
+    @param filter    Which fishers to measure.
+    @param measure   What to measure.
+    @param quantiles The quantiles to estimate, if any (e.g. 0.5 for the median).
+  */
+  public Probe(String name, Predicate<Fisher> filter, ToDoubleFunction<Fisher> measure, double... quantiles) {
+    this.name = name;
+    this.filter = filter;
+    this.measure = measure;
+    this.quantiles = new QuantileSketch[quantiles.length];
+    for (int i = 0; i < quantiles.length; i++) this.quantiles[i] = new QuantileSketch(quantiles[i]);
+  }
+
+  public Probe(String name, ToDoubleFunction<Fisher> measure, double... quantiles) {
+    this(name, fisher -> true, measure, quantiles);
+  }
+
+  public String getName() { return name; }
+
+  public RunningStats getStats() { return stats; }
+
+  public QuantileSketch getQuantile(int i) { return quantiles[i]; }
+
+  public void reset() {
+    stats.reset();
+    for (QuantileSketch q : quantiles) q.reset();
+  }
+
+  /** Measures a fisher, if it passes the filter */
+  public void offer(Fisher fisher) {
+    if (!filter.test(fisher)) return;
+    double value = measure.applyAsDouble(fisher);
+    stats.add(value);
+    for (QuantileSketch q : quantiles) q.add(value);
+  }
+
+  public int getNumColumns() {
+    return 5 + quantiles.length;
+  }
+
+  public String[] getColumns() {
+    String[] columns = new String[getNumColumns()];
+    columns[0] = name + "_count";
+    columns[1] = name + "_mean";
+    columns[2] = name + "_sd";
+    columns[3] = name + "_min";
+    columns[4] = name + "_max";
+    for (int i = 0; i < quantiles.length; i++)
+      columns[5 + i] = name + "_q" + Math.round(quantiles[i].getP() * 100);
+    return columns;
+  }
+
+  /** Writes the current statistics to `row`, starting at `offset` */
+  public void getValues(double[] row, int offset) {
+    row[offset] = stats.getCount();
+    row[offset + 1] = stats.getMean();
+    row[offset + 2] = stats.getStandardDeviation();
+    row[offset + 3] = stats.getMin();
+    row[offset + 4] = stats.getMax();
+    for (int i = 0; i < quantiles.length; i++)
+      row[offset + 5 + i] = quantiles[i].getEstimate();
+  }
+
+}
@@ -0,0 +1,100 @@
+package np.tdfishers.observation;
+
+import java.util.Arrays;
+
+/**
+  Estimates a quantile of a stream of values in constant space, using the
+  P-square algorithm of Jain and Chlamtac (1985). Five markers are kept:
+  the minimum, the maximum, the estimated quantile, and two markers half-way
+  to it. Each new value moves the markers' positions, and the markers'
+  heights are adjusted with a piecewise-parabolic interpolation when they
+  drift too far from where they should be.
+*/
+public class QuantileSketch {
+
+  private final double p;
+  private final double[] heights = new double[5];
+  private final double[] positions = new double[5];
+  private final double[] desired = new double[5];
+  private final double[] increments;
+  private long count;
+
+  /** @param p The quantile to estimate, between 0 and 1 (e.g. 0.5 for the median) */
+  public QuantileSketch(double p) {
+    if (p < 0.0 || p > 1.0)
+      throw new IllegalArgumentException("Quantile must be between 0 and 1, got " + p);
+    this.p = p;
+    increments = new double[] { 0.0, p / 2.0, p, (1.0 + p) / 2.0, 1.0 };
+    reset();
+  }
+
+  public double getP() { return p; }
+
+  public long getCount() { return count; }
+
+  public void reset() {
+    count = 0;
+    for (int i = 0; i < 5; i++) {
+      positions[i] = i;
+      desired[i] = 4.0 * increments[i];
+    }
+  }
+
+  public void add(double value) {
+    if (count < 5) {
+      // we just store the first five values, which become our markers
+      heights[(int) count++] = value;
+      if (count == 5) Arrays.sort(heights);
+      return;
+    }
+    count++;
+    int k; // the cell in which the new value falls
+    if (value < heights[0]) {
+      heights[0] = value;
+      k = 0;
+    } else if (value >= heights[4]) {
+      heights[4] = value;
+      k = 3;
+    } else {
+      k = 0;
+      while (value >= heights[k + 1]) k++;
+    }
+    for (int i = k + 1; i < 5; i++) positions[i]++;
+    for (int i = 0; i < 5; i++) desired[i] += increments[i];
+    // adjust the three middle markers if they're off by one position or more
+    for (int i = 1; i < 4; i++) {
+      double d = desired[i] - positions[i];
+      if ((d >= 1.0 && positions[i + 1] - positions[i] > 1.0) ||
+          (d <= -1.0 && positions[i - 1] - positions[i] < -1.0)) {
+        int s = d > 0 ? 1 : -1;
+        double h = parabolic(i, s);
+        heights[i] = heights[i - 1] < h && h < heights[i + 1] ? h : linear(i, s);
+        positions[i] += s;
+      }
+    }
+  }
+
+  private double parabolic(int i, int s) {
+    return heights[i] + s / (positions[i + 1] - positions[i - 1]) * (
+      (positions[i] - positions[i - 1] + s) * (heights[i + 1] - heights[i]) / (positions[i + 1] - positions[i]) +
+      (positions[i + 1] - positions[i] - s) * (heights[i] - heights[i - 1]) / (positions[i] - positions[i - 1])
+    );
+  }
+
+  private double linear(int i, int s) {
+    return heights[i] + s * (heights[i + s] - heights[i]) / (positions[i + s] - positions[i]);
+  }
+
+  /** The current estimate of the quantile, or NaN if no values were added */
+  public double getEstimate() {
+    if (count == 0) return Double.NaN;
+    if (count < 5) {
+      // with so few values, we can afford to be exact
+      double[] sorted = Arrays.copyOf(heights, (int) count);
+      Arrays.sort(sorted);
+      return sorted[(int) Math.round(p * (count - 1))];
+    }
+    return heights[2];
+  }
+
+}
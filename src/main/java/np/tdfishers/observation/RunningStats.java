@@ -0,0 +1,52 @@
+package np.tdfishers.observation;
+
+/**
+  Keeps track of the count, mean, variance, minimum and maximum of a stream
+  of values, in constant space and without storing the values themselves.
+  The mean and variance are updated with Welford's algorithm, which doesn't
+  suffer from the cancellation problems of the naive sum-of-squares approach.
+*/
+public class RunningStats {
+
+  private long count;
+  private double mean;
+  private double m2; // sum of squared differences from the current mean
+  private double min;
+  private double max;
+
+  public RunningStats() {
+    reset();
+  }
+
+  public void reset() {
+    count = 0;
+    mean = 0.0;
+    m2 = 0.0;
+    min = Double.POSITIVE_INFINITY;
+    max = Double.NEGATIVE_INFINITY;
+  }
+
+  public void add(double value) {
+    count++;
+    double delta = value - mean;
+    mean += delta / count;
+    m2 += delta * (value - mean);
+    if (value < min) min = value;
+    if (value > max) max = value;
+  }
+
+  public long getCount() { return count; }
+
+  /** The mean of the values seen so far, or NaN if there weren't any */
+  public double getMean() { return count > 0 ? mean : Double.NaN; }
+
+  /** The sample variance of the values seen so far, or NaN if there were less than two */
+  public double getVariance() { return count > 1 ? m2 / (count - 1) : Double.NaN; }
+
+  public double getStandardDeviation() { return Math.sqrt(getVariance()); }
+
+  public double getMin() { return count > 0 ? min : Double.NaN; }
+
+  public double getMax() { return count > 0 ? max : Double.NaN; }
+
+}
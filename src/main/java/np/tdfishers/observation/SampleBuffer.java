@@ -0,0 +1,46 @@
+package np.tdfishers.observation;
+
+import java.util.Arrays;
+
+/**
+  Rows of values sampled at given steps, stored in primitive arrays that
+  grow as needed. Observers can fill one of these during a run without
+  allocating anything per sample (most of the time), and hand it over to
+  a `SampleSink` in one go.
+*/
+public class SampleBuffer {
+
+  private final String[] columns;
+  private long[] steps = new long[64];
+  private double[] values; // row after row
+  private int rows = 0;
+
+  public SampleBuffer(String... columns) {
+    this.columns = columns;
+    values = new double[steps.length * columns.length];
+  }
+
+  public String[] getColumns() { return columns; }
+
+  public int getNumRows() { return rows; }
+
+  public long getStep(int row) { return steps[row]; }
+
+  public double get(int row, int column) { return values[row * columns.length + column]; }
+
+  /** Adds a row; `row` must have a value for each column and can be reused afterwards */
+  public void add(long step, double[] row) {
+    if (rows == steps.length) {
+      steps = Arrays.copyOf(steps, rows * 2);
+      values = Arrays.copyOf(values, rows * 2 * columns.length);
+    }
+    steps[rows] = step;
+    System.arraycopy(row, 0, values, rows * columns.length, columns.length);
+    rows++;
+  }
+
+  public void clear() {
+    rows = 0;
+  }
+
+}
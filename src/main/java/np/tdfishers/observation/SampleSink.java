@@ -0,0 +1,17 @@
+package np.tdfishers.observation;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+  Somewhere to write samples. Samples come in batches, and each batch
+  belongs to a series (e.g. an experimental condition), identified by a
+  label. Sinks are not thread-safe: when running simulations in parallel,
+  fill a `SampleBuffer` per run and write them from a single thread.
+*/
+public interface SampleSink extends Closeable, Flushable {
+
+  void write(String series, SampleBuffer samples) throws IOException;
+
+}
@@ -0,0 +1,102 @@
+package np.tdfishers.observation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+  Keeps only the last row of each series, and writes them out as a
+  plain-text table when closed, followed by the mean, standard deviation,
+  minimum and maximum of each column over all the series. That's the
+  end state of each run, in a form meant for people rather than for
+  further analysis.
+
+  Writing the same series again replaces its row, so the table always
+  shows the latest one.
+*/
+public class SummarySink implements SampleSink {
+
+  private final Writer out;
+  private final String seriesName;
+  private final String[] columns;
+  private final List<String> series = new ArrayList<>();
+  private final List<Long> steps = new ArrayList<>();
+  private final List<double[]> rows = new ArrayList<>();
+  private boolean closed = false;
+
+  /**
+    @param out        Where to write.
+    @param seriesName The header of the series column.
+    @param columns    The headers of the value columns.
+  */
+  public SummarySink(Writer out, String seriesName, String... columns) {
+    this.out = out;
+    this.seriesName = seriesName;
+    this.columns = columns;
+  }
+
+  public void write(String series, SampleBuffer samples) {
+    if (samples.getColumns().length != columns.length)
+      throw new IllegalArgumentException(
+        "Expected " + columns.length + " columns but got " + samples.getColumns().length);
+    int last = samples.getNumRows() - 1;
+    if (last < 0) return;
+    double[] row = new double[columns.length];
+    for (int column = 0; column < columns.length; column++) row[column] = samples.get(last, column);
+    int i = this.series.indexOf(series);
+    if (i < 0) {
+      this.series.add(series);
+      steps.add(samples.getStep(last));
+      rows.add(row);
+    } else {
+      steps.set(i, samples.getStep(last));
+      rows.set(i, row);
+    }
+  }
+
+  /** Nothing gets written before the end */
+  public void flush() {}
+
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    StringBuilder table = new StringBuilder();
+    line(table, seriesName, "step", columns);
+    for (int i = 0; i < rows.size(); i++)
+      line(table, series.get(i), steps.get(i).toString(), format(rows.get(i)));
+    if (rows.size() > 1) {
+      RunningStats[] stats = new RunningStats[columns.length];
+      for (int column = 0; column < columns.length; column++) {
+        stats[column] = new RunningStats();
+        for (double[] row : rows) stats[column].add(row[column]);
+      }
+      line(table, "mean", "", format(stats, RunningStats::getMean));
+      line(table, "sd", "", format(stats, RunningStats::getStandardDeviation));
+      line(table, "min", "", format(stats, RunningStats::getMin));
+      line(table, "max", "", format(stats, RunningStats::getMax));
+    }
+    out.append(table);
+    out.close();
+  }
+
+  private static String[] format(RunningStats[] stats, ToDoubleFunction<RunningStats> stat) {
+    double[] values = new double[stats.length];
+    for (int i = 0; i < stats.length; i++) values[i] = stat.applyAsDouble(stats[i]);
+    return format(values);
+  }
+
+  private static String[] format(double[] values) {
+    String[] formatted = new String[values.length];
+    for (int i = 0; i < values.length; i++) formatted[i] = String.format("%.6g", values[i]);
+    return formatted;
+  }
+
+  private static void line(StringBuilder table, String series, String step, String[] values) {
+    table.append(String.format("%-10s %10s", series, step));
+    for (String value : values) table.append(String.format(" %16s", value));
+    table.append('\n');
+  }
+
+}
@@ -0,0 +1,196 @@
+package np.tdfishers.observation;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import np.tdfishers.model.Fisher;
+import np.tdfishers.model.Fleet;
+import np.tdfishers.model.Ocean;
+import np.tdfishers.model.TDFishers;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+  Reads back a trajectory written by a `TrajectoryRecorder`, one step at a
+  time: after each call to `next()`, the getters describe the fishers at
+  the end of that step, and the ocean as of its latest snapshot.
+
+  A reader can also stand in for the simulation itself: `configure` sets
+  up a `TDFishers` to have the recorded grid and fleet, and, once the
+  simulation is started, stepping the reader instead of the simulation's
+  own processes puts each recorded step in it (see `apply`), which is how
+  `TDFishersGUI` replays a trajectory. That's just decoding, so it goes
+  much faster than simulating.
+*/
+public class TrajectoryReader implements Steppable, Closeable {
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private boolean endOfFile = false;
+
+  private final int width;
+  private final int height;
+  private final int numFishers;
+  private final int portX;
+  private final int portY;
+  private final int oceanInterval;
+
+  private long step = -1;
+  private final int[] x;
+  private final int[] y;
+  private final byte[] actions;
+  private final long[] rewards;     // as bits
+  private final long[] fishCarried; // as bits
+  private final long[] biomass;     // as bits
+  private long oceanStep = -1;      // the step of the latest ocean snapshot
+  private boolean oceanChanged = false; // since the last `apply`
+
+  public TrajectoryReader(Path path) throws IOException {
+    channel = FileChannel.open(path, READ);
+    ByteBuffer header = ByteBuffer.allocate(TrajectoryRecorder.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    while (header.hasRemaining())
+      if (channel.read(header) < 0) throw new EOFException("Truncated trajectory header");
+    header.flip();
+    if (header.getInt() != TrajectoryRecorder.MAGIC) throw new IOException("Not a TDFishers trajectory");
+    int version = header.getInt();
+    if (version != TrajectoryRecorder.VERSION) throw new IOException("Unsupported trajectory version: " + version);
+    width = header.getInt();
+    height = header.getInt();
+    numFishers = header.getInt();
+    portX = header.getInt();
+    portY = header.getInt();
+    oceanInterval = header.getInt();
+
+    x = new int[numFishers];
+    y = new int[numFishers];
+    Arrays.fill(x, portX);
+    Arrays.fill(y, portY);
+    actions = new byte[numFishers];
+    rewards = new long[numFishers];
+    fishCarried = new long[numFishers];
+    biomass = new long[width * height];
+
+    int size = Math.max(1 << 22, 2 * maxFrameSize());
+    buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.flip(); // empty, until the first `fill`
+  }
+
+  private int maxFrameSize() {
+    return TrajectoryRecorder.FRAME_HEADER_SIZE + Math.max(
+      numFishers * TrajectoryRecorder.FISHER_SIZE, width * height * TrajectoryRecorder.MAX_VARINT);
+  }
+
+  public int getWidth() { return width; }
+  public int getHeight() { return height; }
+  public int getNumFishers() { return numFishers; }
+  public int getPortX() { return portX; }
+  public int getPortY() { return portY; }
+  public int getOceanInterval() { return oceanInterval; }
+
+  /** The step that was just read (counting from 0), or -1 before the first one */
+  public long getStep() { return step; }
+
+  public int getX(int id) { return x[id]; }
+  public int getY(int id) { return y[id]; }
+  public int getAction(int id) { return actions[id]; }
+  public double getReward(int id) { return Double.longBitsToDouble(rewards[id]); }
+  public double getFishCarried(int id) { return Double.longBitsToDouble(fishCarried[id]); }
+
+  /** The step of the latest ocean snapshot, or -1 if there hasn't been one yet */
+  public long getOceanStep() { return oceanStep; }
+
+  /** The biomass of cell `i` (see `Ocean.index`) in the latest ocean snapshot */
+  public double getBiomass(int i) { return Double.longBitsToDouble(biomass[i]); }
+
+  /**
+    Reads the next step, along with its ocean snapshot, if it has one, and
+    returns false if there are no more steps.
+  */
+  public boolean next() throws IOException {
+    if (!fill(maxFrameSize())) return false;
+    try {
+      if (buffer.get() != TrajectoryRecorder.FISHERS_FRAME)
+        throw new IOException("Corrupt trajectory after step " + step);
+      step += TrajectoryRecorder.getVarLong(buffer);
+      for (int id = 0; id < numFishers; id++) {
+        x[id] += (int) TrajectoryRecorder.unZigZag(TrajectoryRecorder.getVarLong(buffer));
+        y[id] += (int) TrajectoryRecorder.unZigZag(TrajectoryRecorder.getVarLong(buffer));
+        actions[id] = buffer.get();
+        rewards[id] = TrajectoryRecorder.getDouble(buffer, rewards[id]);
+        fishCarried[id] = TrajectoryRecorder.getDouble(buffer, fishCarried[id]);
+      }
+      if (fill(maxFrameSize()) && buffer.get(buffer.position()) == TrajectoryRecorder.OCEAN_FRAME) {
+        buffer.get();
+        oceanStep = step + TrajectoryRecorder.getVarLong(buffer);
+        for (int i = 0; i < biomass.length; i++)
+          biomass[i] = TrajectoryRecorder.getDouble(buffer, biomass[i]);
+        oceanChanged = true;
+      }
+    } catch (BufferUnderflowException e) {
+      // the recording was cut short, e.g., by a crash
+      throw new EOFException("Truncated trajectory after step " + step);
+    }
+    return true;
+  }
+
+  /**
+    Makes sure that `bytes` bytes are in the buffer, or as many as are left
+    in the file, and returns false if there are none.
+  */
+  private boolean fill(int bytes) throws IOException {
+    if (buffer.remaining() < bytes && !endOfFile) {
+      buffer.compact();
+      while (buffer.hasRemaining())
+        if (channel.read(buffer) < 0) {
+          endOfFile = true;
+          break;
+        }
+      buffer.flip();
+    }
+    return buffer.hasRemaining();
+  }
+
+  /** Gives a simulation the recorded grid and fleet; call this before starting it */
+  public void configure(TDFishers tdf) {
+    tdf.setGridWidth(width);
+    tdf.setGridHeight(height);
+    tdf.setNumFishers(numFishers);
+    tdf.setTrajectoryFile(""); // a replay isn't worth recording, and it might overwrite what we read
+  }
+
+  /** Puts the fishers where they were at the current step, and the ocean as of its latest snapshot */
+  public void apply(TDFishers tdf) {
+    Fleet fleet = tdf.fleet;
+    for (int id = 0; id < numFishers; id++)
+      fleet.set(id, x[id], y[id], getFishCarried(id), actions[id] != Fisher.STAY_PUT);
+    if (oceanChanged) {
+      Ocean ocean = tdf.ocean;
+      for (int i = 0; i < biomass.length; i++) ocean.set(i, getBiomass(i));
+      oceanChanged = false;
+    }
+  }
+
+  /** Applies the next step to the simulation, or stops it at the end of the trajectory */
+  public void step(SimState state) {
+    try {
+      if (next()) apply((TDFishers) state);
+      else state.kill();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public void close() throws IOException {
+    channel.close();
+  }
+
+}
@@ -0,0 +1,251 @@
+package np.tdfishers.observation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import np.tdfishers.model.Fleet;
+import np.tdfishers.model.Ocean;
+import np.tdfishers.model.TDFishers;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+  Records what every fisher does at every step, and what the ocean looks
+  like every so often, to a file that can be analysed or replayed later
+  (see `TrajectoryReader`) without running the simulation again.
+
+  Fishers tell the recorder which action they took and what reward they got
+  for it; the recorder is stepped after everything else, and then encodes
+  a frame with each fisher's location, action, reward and fish carried. To
+  keep files small, each value is written as a difference with the previous
+  frame, as a variable-length integer: locations as zig-zag encoded deltas,
+  and doubles as the XOR of their bits with the previous value, bit
+  reversed, so that values that don't change (which is most of them) take
+  a single byte. Ocean snapshots are encoded the same way, cell by cell,
+  relative to the previous snapshot.
+
+  Frames are encoded into large direct buffers, which a background thread
+  writes to the file while the simulation goes on. There are a few buffers
+  in rotation, so the simulation only waits if the disk can't keep up.
+
+  The file is little-endian, and made of:
+
+  - a header: the magic number `TDTR`, a format version, the grid's width
+    and height, the number of fishers, the port's location, and the number
+    of steps between ocean snapshots (all ints);
+  - frames, each one starting with its kind (a byte) and the number of
+    steps since the previous frame (a varint), followed, for a fishers
+    frame, by the location deltas, action (a byte), reward and fish
+    carried of each fisher, or, for an ocean frame, by the biomass of
+    each cell, row after row.
+*/
+public class TrajectoryRecorder implements Steppable, Closeable {
+
+  public static final int MAGIC = 0x54445452; // "TDTR"
+  public static final int VERSION = 1;
+  static final int HEADER_SIZE = 8 * Integer.BYTES;
+  static final byte FISHERS_FRAME = 1;
+  static final byte OCEAN_FRAME = 2;
+  static final int MAX_VARINT = 10; // bytes in the longest varint
+  static final int FISHER_SIZE = 4 * MAX_VARINT + 1; // at most, per fisher in a frame
+  static final int FRAME_HEADER_SIZE = 1 + MAX_VARINT;
+
+  private static final int BUFFER_SIZE = 1 << 22;
+  private static final int NUM_BUFFERS = 4;
+  private static final ByteBuffer END = ByteBuffer.allocate(0); // tells the writer to stop
+
+  private final FileChannel channel;
+  private final int oceanInterval;
+  private final int numFishers;
+
+  // what the fishers told us during the current step
+  private final byte[] actions;
+  private final double[] rewards;
+
+  // the last values written, which the next ones are relative to
+  private final int[] lastX;
+  private final int[] lastY;
+  private final long[] lastReward;
+  private final long[] lastFishCarried;
+  private final long[] lastBiomass;
+  private long lastStep = -1;
+
+  private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(NUM_BUFFERS);
+  private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(NUM_BUFFERS + 1);
+  private final Thread writer;
+  private volatile IOException failure;
+  private ByteBuffer buffer; // the one being filled
+  private boolean closed = false;
+
+  /**
+    @param path          The file to write to.
+    @param tdf           The simulation to record, which has to be started.
+    @param oceanInterval The number of steps between two snapshots of the ocean.
+  */
+  public TrajectoryRecorder(Path path, TDFishers tdf, int oceanInterval) throws IOException {
+    Ocean ocean = tdf.ocean;
+    this.oceanInterval = oceanInterval;
+    numFishers = tdf.getNumFishers();
+    actions = new byte[numFishers];
+    rewards = new double[numFishers];
+    lastX = new int[numFishers];
+    lastY = new int[numFishers];
+    lastReward = new long[numFishers];
+    lastFishCarried = new long[numFishers];
+    lastBiomass = new long[ocean.size()];
+    Arrays.fill(lastX, tdf.portLocation.x);
+    Arrays.fill(lastY, tdf.portLocation.y);
+
+    // a frame always fits in a buffer, even with a huge fleet or ocean
+    int size = Math.max(BUFFER_SIZE, FRAME_HEADER_SIZE +
+      Math.max(numFishers * FISHER_SIZE, ocean.size() * MAX_VARINT));
+    for (int i = 0; i < NUM_BUFFERS; i++)
+      free.add(ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN));
+
+    channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+    buffer = free.remove();
+    buffer.putInt(MAGIC).putInt(VERSION)
+      .putInt(ocean.getWidth()).putInt(ocean.getHeight()).putInt(numFishers)
+      .putInt(tdf.portLocation.x).putInt(tdf.portLocation.y).putInt(oceanInterval);
+
+    writer = new Thread(this::write, "trajectory writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /** Called by fisher `id` when it starts an action */
+  public void recordAction(int id, int action) { actions[id] = (byte) action; }
+
+  /** Called by fisher `id` when it gets the reward for its action */
+  public void recordReward(int id, double reward) { rewards[id] = reward; }
+
+  /** Writes a frame for the step that just ended, and a snapshot of the ocean if it's time for one */
+  public void step(SimState state) {
+    TDFishers tdf = (TDFishers) state;
+    long step = tdf.schedule.getSteps();
+    reserve(FRAME_HEADER_SIZE + numFishers * FISHER_SIZE);
+    writeFrameHeader(FISHERS_FRAME, step);
+    Fleet fleet = tdf.fleet;
+    for (int id = 0; id < numFishers; id++) {
+      int x = fleet.getX(id);
+      int y = fleet.getY(id);
+      putVarLong(buffer, zigZag(x - lastX[id]));
+      putVarLong(buffer, zigZag(y - lastY[id]));
+      buffer.put(actions[id]);
+      lastReward[id] = putDouble(buffer, rewards[id], lastReward[id]);
+      lastFishCarried[id] = putDouble(buffer, fleet.getFishCarried(id), lastFishCarried[id]);
+      lastX[id] = x;
+      lastY[id] = y;
+    }
+    if (step % oceanInterval == 0) {
+      Ocean ocean = tdf.ocean;
+      reserve(FRAME_HEADER_SIZE + ocean.size() * MAX_VARINT);
+      writeFrameHeader(OCEAN_FRAME, step);
+      for (int i = 0; i < lastBiomass.length; i++)
+        lastBiomass[i] = putDouble(buffer, ocean.get(i), lastBiomass[i]);
+    }
+  }
+
+  private void writeFrameHeader(byte kind, long step) {
+    buffer.put(kind);
+    putVarLong(buffer, step - lastStep);
+    lastStep = step;
+  }
+
+  /** Makes sure there's room for that many bytes in the buffer, handing it to the writer if not */
+  private void reserve(int bytes) {
+    if (buffer.remaining() < bytes) handOver();
+  }
+
+  private void handOver() {
+    if (failure != null) throw new UncheckedIOException(failure);
+    try {
+      full.put(buffer);
+      buffer = free.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while recording a trajectory", e);
+    }
+  }
+
+  /** What the writer thread does: write full buffers until told to stop */
+  private void write() {
+    try {
+      while (true) {
+        ByteBuffer b = full.take();
+        if (b == END) return;
+        b.flip();
+        try {
+          if (failure == null) while (b.hasRemaining()) channel.write(b);
+        } catch (IOException e) {
+          failure = e; // reported to the simulation thread at the next hand-over
+        }
+        b.clear();
+        free.put(b);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Writes whatever is left and waits for the writer to be done */
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    try {
+      full.put(buffer);
+      full.put(END);
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      channel.close();
+    }
+    if (failure != null) throw failure;
+  }
+
+  static long zigZag(long n) { return (n << 1) ^ (n >> 63); }
+
+  static long unZigZag(long n) { return (n >>> 1) ^ -(n & 1); }
+
+  static void putVarLong(ByteBuffer b, long v) {
+    while ((v & ~0x7FL) != 0) {
+      b.put((byte) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    b.put((byte) v);
+  }
+
+  static long getVarLong(ByteBuffer b) {
+    long v = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte x = b.get();
+      v |= (long) (x & 0x7F) << shift;
+      if (x >= 0) return v;
+    }
+  }
+
+  /** Writes a double relative to the bits of the previous one, and returns its bits */
+  static long putDouble(ByteBuffer b, double value, long previous) {
+    long bits = Double.doubleToRawLongBits(value);
+    putVarLong(b, Long.reverse(bits ^ previous));
+    return bits;
+  }
+
+  /** Reads a double written by `putDouble` and returns its bits */
+  static long getDouble(ByteBuffer b, long previous) {
+    return Long.reverse(getVarLong(b)) ^ previous;
+  }
+
+}
@@ -0,0 +1,49 @@
+package np.tdfishers.experiments
+
+import np.tdfishers.model.BatchEngine
+import np.tdfishers.model.TDFishers
+
+import scala.collection.JavaConverters._
+
+/**
+  Compares the time it takes to run a number of small simulations one after
+  the other, each with its own schedule, with the time it takes to run them
+  all together with a `BatchEngine`. Arguments are the number of
+  simulations, the number of steps and the number of threads.
+*/
+object BatchThroughput extends App {
+  val numSimulations = if (args.length > 0) args(0).toInt else 100
+  val steps = if (args.length > 1) args(1).toInt else 10000
+  val threads = if (args.length > 2) args(2).toInt else Runtime.getRuntime.availableProcessors
+  val masterSeed = 42L
+
+  def simulations: Seq[TDFishers] = (0 until numSimulations).map { run =>
+    val tdf = new TDFishers(Runner.seed(masterSeed, run))
+    tdf.setParallelStepping(true) // the batch engine only steps fishers that way
+    tdf.setThreads(1)
+    tdf
+  }
+
+  def seconds(f: => Unit): Double = {
+    val start = System.nanoTime()
+    f
+    (System.nanoTime() - start) / 1e9
+  }
+
+  println(s"$numSimulations simulations, $steps steps, $threads threads")
+  val oneByOne = seconds {
+    for (tdf <- simulations) {
+      tdf.start()
+      for (_ <- 1 to steps) tdf.schedule.step(tdf)
+      tdf.finish()
+    }
+  }
+  println(f"one by one: ${numSimulations * steps / oneByOne}%12.1f simulation steps/s")
+  val batched = seconds {
+    val engine = new BatchEngine(simulations.asJava, threads)
+    engine.run(steps)
+    engine.finish()
+  }
+  println(f"batched:    ${numSimulations * steps / batched}%12.1f simulation steps/s (${oneByOne / batched}%.2fx)")
+  System.exit(0)
+}
@@ -3,33 +3,50 @@ package np.tdfishers.experiments
 import np.tdfishers.model.TDFishers
 import np.tdfishers.model.Fisher
 import np.tdfishers.model.Fisher.IS_NOT_MOVING
+import np.tdfishers.observation.BinarySink
+import np.tdfishers.observation.CsvSink
+import np.tdfishers.observation.Probe
+import np.tdfishers.observation.SampleBuffer
 
-import java.io.File
-import java.io.PrintWriter
-
-import scala.collection.Iterator
-import scala.util.control.Breaks._
-import scala.collection.JavaConverters._
+import java.io.FileOutputStream
+import java.io.FileWriter
 
 
+/**
+  Records the mean distance from port of trawling fishers, with and without
+  delayed rewards. The optional arguments are a master seed and the output
+  format (`csv`, the default, or `binary`).
+*/
 object FishingDistanceExperiment extends App {
-  val writer = new PrintWriter(new File("experiments/port_distances.csv"))
-  writer.println(s"reward_delayed,step,distance")
+  val masterSeed = if (args.length > 0) args(0).toLong else 20180601L
+  val binary = args.length > 1 && args(1) == "binary"
+  val sink =
+    if (binary) new BinarySink(new FileOutputStream("experiments/port_distances.bin"), "distance")
+    else new CsvSink(new FileWriter("experiments/port_distances.csv"), "reward_delayed", "distance")
   for (rewardDelayed <- List(true, false)) {
     val init = { tdf: TDFishers => tdf.setRewardDelayed(rewardDelayed) }
-    Runner(100, 300000, init) { (tdf, run) =>
-      val steps = tdf.schedule.getSteps
-      if (steps % (24 * 14) == 0) { // only sample periodically
-        val dists = tdf.fishersGrid.getAllObjects.iterator.asScala // grab the bag's iterator
-          .collect { case fisher: Fisher => fisher } // cast every object to Fisher
-          .filter { fisher => fisher.doubleValue == IS_NOT_MOVING && !fisher.isAtPort } // keep only those trawling
-          .map { fisher => fisher.getDistanceToPort } // get the distances
-          .toVector // and store those in a vector
-        val meanDist = dists.sum / dists.size
-        if (!dists.isEmpty) writer.println(s"$rewardDelayed,$steps,$meanDist")
+    val samples = Runner.parallel(100, 300000, init, masterSeed) { run =>
+      new Runner.Observer[SampleBuffer] {
+        val distance = new Probe("distance",
+          (fisher: Fisher) => fisher.doubleValue == IS_NOT_MOVING && !fisher.isAtPort, // keep only those trawling
+          (fisher: Fisher) => fisher.getDistanceToPort)
+        val probes = Array(distance)
+        val row = new Array[Double](1)
+        val result = new SampleBuffer("distance")
+        def observe(tdf: TDFishers): Unit = {
+          val steps = tdf.schedule.getSteps
+          if (steps % (24 * 14) == 0) { // only sample periodically
+            tdf.sample(probes)
+            if (distance.getStats.getCount > 0) {
+              row(0) = distance.getStats.getMean
+              result.add(steps, row)
+            }
+          }
+        }
       }
     }
+    samples.foreach(sink.write(rewardDelayed.toString, _))
   }
-  writer.close()
+  sink.close()
   System.exit(0)
 }
@@ -0,0 +1,171 @@
+package np.tdfishers.experiments
+
+import np.tdfishers.model.Fisher
+import np.tdfishers.model.TDFishers
+import np.tdfishers.observation.BinarySink
+import np.tdfishers.observation.CsvSink
+import np.tdfishers.observation.JsonSink
+import np.tdfishers.observation.Probe
+import np.tdfishers.observation.SampleBuffer
+import np.tdfishers.observation.SampleSink
+import np.tdfishers.observation.SummarySink
+
+import java.io.FileOutputStream
+import java.io.OutputStream
+import java.io.OutputStreamWriter
+import java.nio.charset.StandardCharsets.UTF_8
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit.SECONDS
+
+/**
+  Runs the model from the command line, for machines without a display.
+  Nothing here touches Swing, AWT or MASON's display classes, so it starts
+  quickly and stays small. For example:
+
+    ./sbt "runMain np.tdfishers.experiments.Headless -runs 20 -steps 87600 -sink csv -out runs.csv numFishers=500 rewardDelayed=true"
+
+  Arguments of the form `name=value` set a property of the model (see
+  `Parameters`, and `-help` for the list), and the options are:
+
+    -runs N      the number of runs (1)
+    -steps N     the number of steps in each run (a year)
+    -threads N   the number of runs done at once (one per processor)
+    -interval N  the number of steps between two samples (a day)
+    -seed N      the master seed, from which each run's seed is derived (the time)
+    -sink S      `csv`, `json`, `binary` (see `BinarySink`) or `summary`, a
+                 table of where each run ended up (the default)
+    -out FILE    where to write the samples (standard output)
+
+  Each sample has the ocean's total biomass, and the mean fish carried,
+  fraction of fishers moving and distance to port of the fleet. Samples
+  are labelled with their run's number and written in run order, a run at a
+  time, as soon as the run and those before it are done. Progress messages
+  go to the standard error, so that samples can be piped somewhere else.
+
+  When the JVM is asked to shut down (by SIGTERM or Ctrl-C), the runs in
+  progress stop at the end of their current step, and what they sampled
+  so far, plus a sample of the step where they stopped, gets written out
+  before the sink is closed. Runs that haven't started are skipped. (All
+  of that is `Runner.parallel`'s doing.)
+*/
+object Headless {
+
+  val columns: Array[String] = Array("biomass", "fish_carried", "moving", "distance_to_port")
+
+  case class Options(
+    runs: Int = 1,
+    steps: Int = TDFishers.YEAR.toInt,
+    threads: Int = Runtime.getRuntime.availableProcessors,
+    interval: Int = TDFishers.DAY.toInt,
+    seed: Long = System.currentTimeMillis,
+    sink: String = "summary",
+    out: Option[String] = None,
+    parameters: Seq[(String, String)] = Seq.empty)
+
+  private val sinks = Seq("csv", "json", "binary", "summary")
+
+  def parse(args: List[String], options: Options = Options()): Options = args match {
+    case Nil => options
+    case "-runs" :: n :: rest => parse(rest, options.copy(runs = positive("-runs", n)))
+    case "-steps" :: n :: rest => parse(rest, options.copy(steps = positive("-steps", n)))
+    case "-threads" :: n :: rest => parse(rest, options.copy(threads = positive("-threads", n)))
+    case "-interval" :: n :: rest => parse(rest, options.copy(interval = positive("-interval", n)))
+    case "-seed" :: n :: rest => parse(rest, options.copy(seed = n.toLong))
+    case "-sink" :: s :: rest if sinks.contains(s) => parse(rest, options.copy(sink = s))
+    case "-sink" :: s :: _ =>
+      throw new IllegalArgumentException(s"Unknown sink '$s'; expected one of ${sinks.mkString(", ")}")
+    case "-out" :: file :: rest => parse(rest, options.copy(out = Some(file)))
+    case arg :: rest if !arg.startsWith("-") && arg.contains('=') =>
+      val (name, value) = (arg.take(arg.indexOf('=')), arg.drop(arg.indexOf('=') + 1))
+      Parameters.normalise(name, value) // fail now rather than in the first run
+      parse(rest, options.copy(parameters = options.parameters :+ (name -> value)))
+    case arg :: _ => throw new IllegalArgumentException(s"Unexpected argument '$arg'")
+  }
+
+  private def positive(option: String, n: String): Int =
+    if (n.toInt > 0) n.toInt else throw new IllegalArgumentException(s"$option must be positive")
+
+  private def usage: String =
+    "Usage: Headless [-runs N] [-steps N] [-threads N] [-interval N] [-seed N]\n" +
+    s"                [-sink ${sinks.mkString("|")}] [-out FILE] [name=value...]\n" +
+    "Model properties:\n" +
+    Parameters.names.map(name => s"  $name (${Parameters.typeOf(name).getSimpleName})").mkString("\n")
+
+  def main(args: Array[String]): Unit = {
+    System.setProperty("java.awt.headless", "true") // just in case something reaches for AWT
+    if (args.contains("-help")) {
+      println(usage)
+      sys.exit(0)
+    }
+    val options =
+      try parse(args.toList) catch {
+        case e: IllegalArgumentException =>
+          System.err.println(e.getMessage + "\n" + usage)
+          sys.exit(2)
+      }
+    val stdout = System.out
+    // the chatter of `Runner` goes to the standard error, for this thread
+    // and for the ones it starts
+    Console.withOut(System.err) {
+      println(s"Headless - master seed ${options.seed}")
+      val sink = newSink(options, options.out.map(new FileOutputStream(_)).getOrElse(stdout))
+      @volatile var stopping = false
+      val closed = new CountDownLatch(1)
+      // on SIGTERM or Ctrl-C, stop the runs and wait until what they did is written out
+      val hook = new Thread(() => {
+        stopping = true
+        if (!closed.await(60, SECONDS)) System.err.println("Headless - gave up waiting for the runs in progress")
+      }, "headless shutdown")
+      Runtime.getRuntime.addShutdownHook(hook)
+      try {
+        val init = { tdf: TDFishers => Parameters.set(tdf, options.parameters) }
+        Runner.parallel(options.runs, options.steps, init, options.seed, options.threads, stop = () => stopping)(
+          _ => new Sampler(options.interval),
+          onDone = { (run: Int, samples: SampleBuffer) => sink.write(run.toString, samples); sink.flush() })
+      } finally {
+        sink.close()
+        closed.countDown()
+        try Runtime.getRuntime.removeShutdownHook(hook)
+        catch { case _: IllegalStateException => } // we're shutting down already
+      }
+    }
+    sys.exit(0)
+  }
+
+  private def newSink(options: Options, out: OutputStream): SampleSink = options.sink match {
+    case "csv" => new CsvSink(new OutputStreamWriter(out, UTF_8), "run", columns: _*)
+    case "json" => new JsonSink(new OutputStreamWriter(out, UTF_8), "run")
+    case "binary" => new BinarySink(out, columns: _*)
+    case "summary" => new SummarySink(new OutputStreamWriter(out, UTF_8), "run", columns: _*)
+  }
+
+  /** Samples a run every `interval` steps, and at the step where it ended */
+  private class Sampler(interval: Int) extends Runner.Observer[SampleBuffer] {
+    private val probes = Array(
+      new Probe("fish_carried", (fisher: Fisher) => fisher.getFishCarried),
+      new Probe("moving", (fisher: Fisher) => fisher.doubleValue),
+      new Probe("distance_to_port", (fisher: Fisher) => fisher.getDistanceToPort))
+    private val row = new Array[Double](columns.length)
+    private var last: TDFishers = _
+    private val samples = new SampleBuffer(columns: _*)
+
+    def observe(tdf: TDFishers): Unit = {
+      last = tdf
+      if (tdf.schedule.getSteps % interval == 0) sample(tdf)
+    }
+
+    /** Samples the last step of the run, unless that was done already, and returns the samples */
+    def result: SampleBuffer = {
+      val rows = samples.getNumRows
+      if (last != null && (rows == 0 || samples.getStep(rows - 1) != last.schedule.getSteps)) sample(last)
+      samples
+    }
+
+    private def sample(tdf: TDFishers): Unit = {
+      tdf.sample(probes)
+      row(0) = tdf.ocean.total
+      for (i <- probes.indices) row(i + 1) = probes(i).getStats.getMean
+      samples.add(tdf.schedule.getSteps, row)
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package np.tdfishers.experiments
+
+import np.tdfishers.model.TDFishers
+
+import java.lang.reflect.Method
+
+/**
+  Sets the parameters of a simulation by name, e.g. from a sweep or a
+  command line. A parameter is any property of `TDFishers` with a setter
+  taking a number, a boolean or a string, and values are given as strings
+  and converted to the setter's type. Setters silently ignore values out of
+  their range, as they do in MASON's inspectors.
+
+  MASON's `seed` and `job` are not parameters: a run's seed comes from its
+  number (see `Runner.seed`), and setting it here would quietly undo that.
+*/
+object Parameters {
+
+  private val setters: Map[String, Method] =
+    classOf[TDFishers].getMethods.toSeq
+      .filter(m => m.getName.startsWith("set") && m.getName.length > 3 && m.getParameterCount == 1)
+      .filter(m => convert.isDefinedAt(m.getParameterTypes()(0)))
+      .filterNot(m => m.getName == "setSeed" || m.getName == "setJob")
+      .map(m => (m.getName.charAt(3).toLower + m.getName.substring(4)) -> m)
+      .toMap
+
+  private def convert: PartialFunction[Class[_], String => AnyRef] = {
+    case java.lang.Integer.TYPE => s => Int.box(s.toDouble.round.toInt)
+    case java.lang.Long.TYPE => s => Long.box(s.toLong)
+    case java.lang.Double.TYPE => s => Double.box(s.toDouble)
+    case java.lang.Boolean.TYPE => s => Boolean.box(s.toBoolean)
+    case c if c == classOf[String] => s => s
+  }
+
+  /** The names of all the parameters, in alphabetical order */
+  def names: Seq[String] = setters.keys.toSeq.sorted
+
+  def isDefined(name: String): Boolean = setters.contains(name)
+
+  /** The type of a parameter's values */
+  def typeOf(name: String): Class[_] = setter(name).getParameterTypes()(0)
+
+  /**
+    The canonical form of a value for a parameter, which is how it will be
+    set: e.g., "3.0" for an integer parameter becomes "3".
+  */
+  def normalise(name: String, value: String): String =
+    convert(typeOf(name))(value).toString
+
+  def set(tdf: TDFishers, name: String, value: String): Unit = {
+    val method = setter(name)
+    method.invoke(tdf, convert(method.getParameterTypes()(0))(value))
+  }
+
+  def set(tdf: TDFishers, values: Iterable[(String, String)]): Unit =
+    for ((name, value) <- values) set(tdf, name, value)
+
+  private def setter(name: String): Method =
+    setters.getOrElse(name, throw new IllegalArgumentException(
+      s"Unknown parameter '$name'; expected one of ${names.mkString(", ")}"))
+}
@@ -1,8 +1,13 @@
 package np.tdfishers.experiments
 
+import np.tdfishers.model.RandomStreams
 import np.tdfishers.model.TDFishers
+import np.tdfishers.observation.Metrics
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
-import scala.collection.Iterator
 import scala.util.control.Breaks._
 
 /**
@@ -10,21 +15,155 @@ import scala.util.control.Breaks._
   to the number of runs and steps in each run, it takes a lambda for
   initialising the simulation and another one for performing side-effects
   at each time step (presumably for writing to a file).
+
+  Runs can also be done concurrently (see `parallel`), in which case each
+  run gets its own observer, and the observers' results are merged at the end.
+
+  Runs can also stop before their number of steps once the fishers are done
+  learning (see `Convergence`), or when told to (see `run`'s `stop`).
 */
 object Runner {
-  def apply(runs: Int, steps: Int, init: TDFishers => Unit)(f: (TDFishers, Int) => Unit): Unit = {
-    val sims = Iterator.continually(new TDFishers(System.currentTimeMillis()))
-    for ((tdf, run) <- sims.zipWithIndex.take(runs)) {
-      println(s"Run $run - $tdf")
-      tdf.start()
-      init(tdf)
-      breakable {
-        do {
-          if (!tdf.schedule.step(tdf)) break
-          f(tdf, run)
-        } while (tdf.schedule.getSteps < steps)
+
+  /**
+    When to consider that the fishers are done learning: when both the
+    average magnitude of their TD errors and the rate at which their policy
+    changes (see `TDFishers.getTdError` and `getPolicyChangeRate`) have been
+    at or under the given thresholds for `window` steps in a row.
+  */
+  case class Convergence(tdError: Double, policyChangeRate: Double, window: Int) {
+    private[Runner] def init(tdf: TDFishers): Unit = tdf.setTrackConvergence(true)
+    private[Runner] def converged(tdf: TDFishers): Boolean =
+      tdf.getTdError <= tdError && tdf.getPolicyChangeRate <= policyChangeRate
+  }
+
+  /**
+    Something that watches a single run. It is created, called and asked for
+    its result by the thread doing that run only, so it doesn't need to be
+    thread-safe.
+  */
+  trait Observer[R] {
+    def observe(tdf: TDFishers): Unit
+    def result: R
+  }
+
+  /**
+    Derives the seed of a run from a master seed, so that experiments are
+    reproducible and no two runs share a seed. This is the SplitMix64
+    stream derivation that fishers also get their generators from (see
+    `RandomStreams`), which scrambles consecutive inputs into unrelated outputs.
+  */
+  def seed(masterSeed: Long, run: Int): Long = RandomStreams.seed(masterSeed, run)
+
+  /**
+    The number of threads that a simulation gets for its own parallel work
+    (see `TDFishers.getThreads`) when `concurrentRuns` simulations are run
+    at once, so that together they have about one thread per processor
+    rather than one per processor each.
+  */
+  def threadsPerRun(concurrentRuns: Int): Int =
+    math.max(1, Runtime.getRuntime.availableProcessors / concurrentRuns)
+
+  def apply(runs: Int, steps: Int, init: TDFishers => Unit)(f: (TDFishers, Int) => Unit): Unit =
+    apply(runs, steps, init, System.currentTimeMillis())(f)
+
+  def apply(runs: Int, steps: Int, init: TDFishers => Unit, masterSeed: Long)(f: (TDFishers, Int) => Unit): Unit =
+    apply(runs, steps, init, masterSeed, None)(f)
+
+  def apply(runs: Int, steps: Int, init: TDFishers => Unit, masterSeed: Long,
+    convergence: Option[Convergence])(f: (TDFishers, Int) => Unit): Unit =
+    for (run <- 0 until runs) this.run(run, steps, init, masterSeed, convergence)(tdf => f(tdf, run))
+
+  /**
+    Runs replications concurrently on a pool of `threads` workers and returns
+    the results of their observers, in run order. Results are the same
+    whatever the number of threads.
+
+    `onDone` is given each run's result, in run order, as soon as that run
+    and the ones before it are done, e.g. to write results out as they come
+    rather than all at the end. Once `stop` returns true, the runs in
+    progress end after their current step (see `run`) and the runs that
+    haven't started are skipped; only the runs that were done are returned.
+  */
+  def parallel[R](runs: Int, steps: Int, init: TDFishers => Unit, masterSeed: Long,
+    threads: Int = Runtime.getRuntime.availableProcessors,
+    convergence: Option[Convergence] = None,
+    stop: () => Boolean = () => false)(newObserver: Int => Observer[R],
+    onDone: (Int, R) => Unit = (_: Int, _: R) => ()): Seq[R] =
+    parallelJobs(runs, threads, stop, onDone) { run =>
+      val observer = newObserver(run)
+      Runner.run(run, steps, init, masterSeed, convergence, math.min(threads, runs), stop)(observer.observe)
+      observer.result
+    }
+
+  /**
+    What `parallel` is made of, for jobs that are more than a
+    replication (e.g. the runs of a `Sweep`): does jobs `0 until jobs` on a
+    pool of `threads` workers, with the same ordering and stopping.
+    Exceptions thrown by a job are thrown here.
+  */
+  def parallelJobs[R](jobs: Int, threads: Int, stop: () => Boolean, onDone: (Int, R) => Unit)(job: Int => R): Seq[R] = {
+    val results = new Array[Option[R]](jobs) // null until the job is done or skipped
+    var next = 0 // the first job whose result hasn't been handed to `onDone` yet
+    def settle(i: Int, result: Option[R]): Unit = results.synchronized {
+      results(i) = result
+      while (next < jobs && results(next) != null) {
+        results(next).foreach(onDone(next, _))
+        next += 1
       }
-      tdf.finish()
     }
+    val pool = Executors.newFixedThreadPool(threads)
+    try {
+      val futures = (0 until jobs).map { i =>
+        pool.submit(new Callable[Unit] {
+          def call(): Unit = settle(i, if (stop()) None else Some(job(i)))
+        })
+      }
+      futures.foreach { future =>
+        try future.get catch { case e: ExecutionException => throw e.getCause }
+      }
+    } finally pool.shutdown()
+    results.toSeq.flatten
+  }
+
+  /**
+    Does a single run, calling `f` after each step. The simulation gets its
+    share of the processors, given that `concurrentRuns` runs are done at
+    once (unless `init` says otherwise). `stop` is checked after each step
+    too, and ends the run early (but properly, with a call to `finish`) as
+    soon as it returns true, e.g. when another thread raises a volatile flag.
+  */
+  private[experiments] def run(run: Int, steps: Int, init: TDFishers => Unit, masterSeed: Long,
+    convergence: Option[Convergence], concurrentRuns: Int = 1,
+    stop: () => Boolean = () => false)(f: TDFishers => Unit): Unit = {
+    val tdf = new TDFishers(seed(masterSeed, run))
+    println(s"Run $run - $tdf")
+    tdf.setThreads(threadsPerRun(concurrentRuns))
+    init(tdf) // before starting, so that parameters read by `start()` are taken into account
+    convergence.foreach(_.init(tdf))
+    tdf.start()
+    var convergedFor = 0 // the number of steps since the fishers converged
+    breakable {
+      do {
+        if (!tdf.schedule.step(tdf)) break
+        val metrics = tdf.getMetrics
+        if (metrics != null && metrics.isSampling) {
+          val start = System.nanoTime()
+          f(tdf)
+          metrics.time(Metrics.Phase.OBSERVERS, System.nanoTime() - start)
+        } else f(tdf)
+        for (c <- convergence) {
+          convergedFor = if (c.converged(tdf)) convergedFor + 1 else 0
+          if (convergedFor >= c.window) {
+            println(s"Run $run - converged after ${tdf.schedule.getSteps} steps")
+            break
+          }
+        }
+        if (stop()) {
+          println(s"Run $run - stopped after ${tdf.schedule.getSteps} steps")
+          break
+        }
+      } while (tdf.schedule.getSteps < steps)
+    }
+    tdf.finish()
   }
 }
@@ -0,0 +1,46 @@
+package np.tdfishers.experiments
+
+import np.tdfishers.model.TDFishers
+
+import java.io.File
+import java.io.FileWriter
+
+/**
+  How much the state of the fishery after a while depends on the learning
+  parameters: a Latin hypercube sample over epsilon, alpha, gamma and
+  catchability, measuring the biomass left in the ocean and the mean
+  distance of the fishers from port at the end of each run. Finished runs
+  are kept in `experiments/sweep-cache`, so the sweep can be interrupted
+  and resumed, or extended with more points or replications.
+
+  The optional arguments are the number of points, the number of
+  replications, the number of steps and the master seed.
+*/
+object SensitivitySweep extends App {
+  val numPoints = if (args.length > 0) args(0).toInt else 50
+  val replications = if (args.length > 1) args(1).toInt else 5
+  val steps = if (args.length > 2) args(2).toInt else 100000
+  val masterSeed = if (args.length > 3) args(3).toLong else 20180601L
+
+  val design = Sweep.LatinHypercube(numPoints, masterSeed,
+    "epsilon" -> (0.01, 0.3),
+    "alpha" -> (0.01, 0.5),
+    "gamma" -> (0.8, 0.999),
+    "catchability" -> (0.005, 0.05)
+  )
+  val columns = Seq("biomass", "distance_to_port")
+  val results = Sweep.run("sensitivity-v1", design, replications, steps, masterSeed, new File("experiments/sweep-cache"), columns) { _ =>
+    new Runner.Observer[Array[Double]] {
+      var result: Array[Double] = _
+      def observe(tdf: TDFishers): Unit =
+        if (tdf.schedule.getSteps == steps) {
+          val distance = (0 until tdf.fishers.size).map(tdf.fishers.get(_).getDistanceToPort).sum
+          result = Array(tdf.ocean.total, distance / tdf.fishers.size)
+        }
+    }
+  }
+  val out = new FileWriter("experiments/sensitivity.csv")
+  Sweep.writeCsv(results, columns, out)
+  out.close()
+  System.exit(0)
+}
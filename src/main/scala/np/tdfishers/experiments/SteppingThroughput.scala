@@ -0,0 +1,43 @@
+package np.tdfishers.experiments
+
+import np.tdfishers.model.TDFishers
+
+/**
+  Compares the throughput of the sequential schedule with the parallel,
+  two-phase fleet stepping, for increasing numbers of threads. Arguments are
+  the number of fishers, the width and height of the ocean, and the number
+  of steps to time (after as many warm-up steps).
+*/
+object SteppingThroughput extends App {
+  val numFishers = if (args.length > 0) args(0).toInt else 5000
+  val gridSize = if (args.length > 1) args(1).toInt else 100
+  val steps = if (args.length > 2) args(2).toInt else 2000
+  val seed = 42L
+
+  def stepsPerSecond(parallel: Boolean, threads: Int): Double = {
+    val tdf = new TDFishers(seed)
+    tdf.setNumFishers(numFishers)
+    tdf.setGridWidth(gridSize)
+    tdf.setGridHeight(gridSize)
+    tdf.setLazyQTables(true)
+    tdf.setParallelStepping(parallel)
+    tdf.setThreads(threads)
+    tdf.start()
+    for (_ <- 1 to steps) tdf.schedule.step(tdf) // warm-up
+    val start = System.nanoTime()
+    for (_ <- 1 to steps) tdf.schedule.step(tdf)
+    val elapsed = (System.nanoTime() - start) / 1e9
+    tdf.finish()
+    steps / elapsed
+  }
+
+  println(s"$numFishers fishers, ${gridSize}x$gridSize ocean, $steps steps")
+  val sequential = stepsPerSecond(parallel = false, threads = 1)
+  println(f"sequential: $sequential%10.1f steps/s")
+  val maxThreads = Runtime.getRuntime.availableProcessors
+  for (threads <- Iterator.iterate(1)(_ * 2).takeWhile(_ <= maxThreads)) {
+    val parallel = stepsPerSecond(parallel = true, threads)
+    println(f"parallel, $threads%2d threads: $parallel%10.1f steps/s (${parallel / sequential}%.2fx)")
+  }
+  System.exit(0)
+}
@@ -0,0 +1,165 @@
+package np.tdfishers.experiments
+
+import ec.util.MersenneTwisterFast
+import np.tdfishers.model.TDFishers
+
+import java.io.File
+import java.io.Writer
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import java.security.MessageDigest
+
+import scala.collection.immutable.SortedMap
+
+/**
+  Parameter sweeps: a design says which combinations of parameter values
+  (the points) to try, and each point is run for a number of replications,
+  on a pool of threads, with each replication measured by an observer that
+  boils it down to a few numbers.
+
+  Finished runs are cached on disk, in a directory with a file per run,
+  named after a hash of the sweep's name, the point, the seed, the number
+  of steps and the names of the values. The name is up to the caller, and
+  is what tells apart sweeps that measure different things (or the same
+  things differently) under the same names: change it (e.g. by bumping a
+  version number in it) whenever the observer or `init` changes. A file only
+  appears once its run is finished (it is written aside and then renamed),
+  so if a sweep gets interrupted, running it again only does what's
+  missing, and the same goes for a sweep that gets more points or
+  replications. Replication `i` of every point gets the same seed (derived
+  from the master seed, see `Runner.seed`), so that points are compared on
+  the same random numbers.
+
+  Results don't depend on the number of threads, nor on what was cached.
+*/
+object Sweep {
+
+  /** A combination of parameter values, by name, in their canonical form (see `Parameters.normalise`) */
+  type Point = SortedMap[String, String]
+
+  trait Design {
+    def points: Seq[Point]
+  }
+
+  /** Every combination of the values given for each parameter */
+  case class Grid(axes: (String, Seq[Any])*) extends Design {
+    def points: Seq[Point] =
+      axes.foldLeft(Seq(SortedMap.empty[String, String])) { case (points, (name, values)) =>
+        for (point <- points; value <- values) yield point + (name -> Parameters.normalise(name, value.toString))
+      }
+  }
+
+  /**
+    A Latin hypercube sample: `n` points such that, if the range of each
+    parameter is split in `n` equal intervals, each interval has exactly one
+    point in it. This covers big spaces much more evenly than picking points
+    at random, with far fewer points than a grid. Integer parameters get
+    rounded. The same seed gives the same points, which is what lets the
+    sweep be resumed.
+  */
+  case class LatinHypercube(n: Int, seed: Long, ranges: (String, (Double, Double))*) extends Design {
+    def points: Seq[Point] = {
+      val rng = new MersenneTwisterFast(seed)
+      val columns = ranges.map { case (name, (min, max)) =>
+        val intervals = shuffle((0 until n).toArray, rng)
+        intervals.map(i => Parameters.normalise(name, (min + (i + rng.nextDouble()) / n * (max - min)).toString))
+      }
+      (0 until n).map(i => SortedMap(ranges.map(_._1).zip(columns.map(_(i))): _*))
+    }
+  }
+
+  private def shuffle(xs: Array[Int], rng: MersenneTwisterFast): Array[Int] = {
+    for (i <- xs.length - 1 to 1 by -1) {
+      val j = rng.nextInt(i + 1)
+      val x = xs(i); xs(i) = xs(j); xs(j) = x
+    }
+    xs
+  }
+
+  /** What came out of one replication of one point */
+  case class Result(point: Point, replication: Int, seed: Long, values: Array[Double])
+
+  /**
+    Runs the replications of every point of a design that aren't in the
+    cache yet, and returns all the results, by point and then by
+    replication.
+
+    @param sweep        The name of the sweep, which should change whenever what a
+                        run does or measures changes (see above).
+    @param design       The points to run.
+    @param replications The number of runs for each point.
+    @param steps        The number of steps in each run.
+    @param masterSeed   The seed from which the seed of each replication is derived.
+    @param cache        The directory where finished runs are kept (created if needed).
+    @param columns      The names of the values returned by the observers.
+    @param threads      The number of runs done at once.
+    @param init         Anything to set on a simulation besides the point's parameters.
+    @param newObserver  Makes an observer for a run, whose result has a value for each column.
+  */
+  def run(sweep: String, design: Design, replications: Int, steps: Int, masterSeed: Long, cache: File,
+    columns: Seq[String], threads: Int = Runtime.getRuntime.availableProcessors,
+    init: TDFishers => Unit = _ => ())(newObserver: Point => Runner.Observer[Array[Double]]): Seq[Result] = {
+    cache.mkdirs()
+    // leftovers of runs that were interrupted while being written
+    for (file <- Option(cache.listFiles).getOrElse(Array.empty[File]) if file.getName.endsWith(".tmp"))
+      file.delete()
+    val jobs = for (point <- design.points.distinct; replication <- 0 until replications)
+      yield (point, replication, Runner.seed(masterSeed, replication))
+    val missing = jobs.filter { case (point, _, seed) => load(cache, key(sweep, point, seed, steps, columns)).isEmpty }
+    println(s"Sweep - ${jobs.size} runs, ${jobs.size - missing.size} already done")
+    Runner.parallelJobs(missing.size, threads, () => false, (_: Int, _: Unit) => ()) { i =>
+      val (point, replication, seed) = missing(i)
+      val observer = newObserver(point)
+      val initPoint = { tdf: TDFishers => init(tdf); Parameters.set(tdf, point) }
+      Runner.run(replication, steps, initPoint, masterSeed, None, math.min(threads, missing.size))(observer.observe)
+      val values = observer.result
+      if (values.length != columns.size)
+        throw new IllegalArgumentException(s"Expected ${columns.size} values but got ${values.length}")
+      store(cache, key(sweep, point, seed, steps, columns), values)
+    }
+    jobs.map { case (point, replication, seed) =>
+      Result(point, replication, seed, load(cache, key(sweep, point, seed, steps, columns)).get)
+    }
+  }
+
+  /** Writes results as CSV, with a column per parameter, then the replication, the seed and the values */
+  def writeCsv(results: Seq[Result], columns: Seq[String], out: Writer): Unit = {
+    val names = results.flatMap(_.point.keys).distinct.sorted
+    out.write((names ++ Seq("replication", "seed") ++ columns).mkString(",") + "\n")
+    for (result <- results) {
+      val row = names.map(result.point.getOrElse(_, "")) ++
+        Seq(result.replication.toString, result.seed.toString) ++ result.values.map(_.toString)
+      out.write(row.mkString(",") + "\n")
+    }
+    out.flush()
+  }
+
+  /** What identifies a run in the cache */
+  private def key(sweep: String, point: Point, seed: Long, steps: Int, columns: Seq[String]): String =
+    s"sweep=$sweep;" + point.map { case (name, value) => s"$name=$value" }.mkString(";") +
+      s";seed=$seed;steps=$steps;columns=${columns.mkString(",")}"
+
+  private def file(cache: File, key: String): File = {
+    val hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(UTF_8))
+    new File(cache, hash.map("%02x".format(_)).mkString + ".csv")
+  }
+
+  // A cached run is two lines: its key (in case of hash collisions) and its values.
+  private def load(cache: File, key: String): Option[Array[Double]] = {
+    val f = file(cache, key)
+    if (!f.exists) None else {
+      val lines = Files.readAllLines(f.toPath, UTF_8)
+      if (lines.size < 2 || lines.get(0) != key) None
+      else Some(if (lines.get(1).isEmpty) Array.empty[Double] else lines.get(1).split(',').map(_.toDouble))
+    }
+  }
+
+  private def store(cache: File, key: String, values: Array[Double]): Unit = {
+    val f = file(cache, key)
+    val tmp = new File(cache, f.getName + "." + Thread.currentThread.getId + ".tmp")
+    Files.write(tmp.toPath, (key + "\n" + values.mkString(",") + "\n").getBytes(UTF_8))
+    Files.move(tmp.toPath, f.toPath, ATOMIC_MOVE, REPLACE_EXISTING)
+  }
+}
@@ -0,0 +1,89 @@
+package np.tdfishers.experiments
+
+import np.tdfishers.model.TDFishers
+
+/**
+  Compares how long fishers take to learn with one-step SARSA and with
+  SARSA(lambda), with accumulating and with replacing traces. What we watch
+  is how much fish the fleet lands at port each day, averaged over a
+  window of days and over runs; a learning algorithm has "converged" when
+  that gets to 90% of the best that any of them achieved. We report how
+  many steps that took and how much wall-clock time.
+
+  The optional arguments are the number of steps, the number of runs,
+  lambda, and the master seed.
+*/
+object TraceConvergence extends App {
+  val steps = if (args.length > 0) args(0).toInt else 300000
+  val runs = if (args.length > 1) args(1).toInt else 4
+  val lambda = if (args.length > 2) args(2).toDouble else 0.9
+  val masterSeed = if (args.length > 3) args(3).toLong else 20180601L
+  val stepsPerDay = TDFishers.DAY.toInt
+  val window = 30 // days
+
+  case class Algorithm(name: String, lambda: Double, replacing: Boolean)
+  val algorithms = Seq(
+    Algorithm("one-step SARSA", 0.0, replacing = false),
+    Algorithm("SARSA(lambda), accumulating", lambda, replacing = false),
+    Algorithm("SARSA(lambda), replacing", lambda, replacing = true)
+  )
+
+  /** The fish landed each day, and the time elapsed at the end of each day (in seconds) */
+  case class Landings(perDay: Array[Double], seconds: Array[Double])
+
+  class LandingsObserver extends Runner.Observer[Landings] {
+    private val start = System.nanoTime()
+    private var carried: Array[Double] = _
+    private val days = steps / stepsPerDay
+    private val perDay = new Array[Double](days)
+    private val seconds = new Array[Double](days)
+    private var today = 0.0
+    def observe(tdf: TDFishers): Unit = {
+      if (carried == null) carried = new Array[Double](tdf.fishers.size)
+      for (i <- carried.indices) {
+        val fisher = tdf.fishers.get(i)
+        val fish = fisher.getFishCarried
+        // a fisher that had fish and now has none just emptied its hold
+        if (fish == 0.0 && carried(i) > 0.0 && fisher.isAtPort) today += carried(i)
+        carried(i) = fish
+      }
+      val step = tdf.schedule.getSteps
+      if (step % stepsPerDay == 0 && step / stepsPerDay <= days) {
+        val day = (step / stepsPerDay - 1).toInt
+        perDay(day) = today
+        seconds(day) = (System.nanoTime() - start) / 1e9
+        today = 0.0
+      }
+    }
+    def result = Landings(perDay, seconds)
+  }
+
+  def mean(xs: Seq[Array[Double]]): Array[Double] =
+    xs.head.indices.map(i => xs.map(_(i)).sum / xs.size).toArray
+
+  /** The average of each window of days */
+  def smooth(perDay: Array[Double]): Array[Double] =
+    perDay.sliding(window).map(_.sum / window).toArray
+
+  val results = algorithms.map { algorithm =>
+    val init = { tdf: TDFishers =>
+      tdf.setLambda(algorithm.lambda)
+      tdf.setReplacingTraces(algorithm.replacing)
+    }
+    val landings = Runner.parallel(runs, steps, init, masterSeed)(_ => new LandingsObserver)
+    algorithm -> (smooth(mean(landings.map(_.perDay))), mean(landings.map(_.seconds)))
+  }
+
+  val target = 0.9 * results.map(_._2._1.max).max
+  println(f"$runs runs of $steps steps; converged means landing $target%.1f fish a day over $window days")
+  for ((algorithm, (landed, seconds)) <- results) {
+    val day = landed.indexWhere(_ >= target)
+    if (day < 0)
+      println(f"${algorithm.name}%-30s did not converge (best: ${landed.max}%.1f)")
+    else {
+      val lastDay = day + window - 1 // the last day of the first window to get there
+      println(f"${algorithm.name}%-30s ${(lastDay + 1) * stepsPerDay}%8d steps ${seconds(lastDay)}%8.1f s")
+    }
+  }
+  System.exit(0)
+}
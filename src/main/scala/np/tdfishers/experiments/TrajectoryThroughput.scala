@@ -0,0 +1,52 @@
+package np.tdfishers.experiments
+
+import np.tdfishers.model.TDFishers
+import np.tdfishers.observation.TrajectoryReader
+
+import java.io.File
+
+/**
+  Measures what recording a trajectory costs: the throughput of the
+  simulation with and without a recorder, the size of the file, and how
+  fast the trajectory can then be read back. Arguments are the number of
+  fishers, the width and height of the ocean, and the number of steps to
+  time (after as many warm-up steps).
+*/
+object TrajectoryThroughput extends App {
+  val numFishers = if (args.length > 0) args(0).toInt else 1000
+  val gridSize = if (args.length > 1) args(1).toInt else 100
+  val steps = if (args.length > 2) args(2).toInt else 10000
+  val seed = 42L
+  val file = File.createTempFile("trajectory", ".bin")
+  file.deleteOnExit()
+
+  def stepsPerSecond(record: Boolean): Double = {
+    val tdf = new TDFishers(seed)
+    tdf.setNumFishers(numFishers)
+    tdf.setGridWidth(gridSize)
+    tdf.setGridHeight(gridSize)
+    tdf.setLazyQTables(true)
+    if (record) tdf.setTrajectoryFile(file.getPath)
+    tdf.start()
+    for (_ <- 1 to steps) tdf.schedule.step(tdf) // warm-up
+    val start = System.nanoTime()
+    for (_ <- 1 to steps) tdf.schedule.step(tdf)
+    tdf.finish() // includes waiting for the writer to be done
+    steps / ((System.nanoTime() - start) / 1e9)
+  }
+
+  println(s"$numFishers fishers, ${gridSize}x$gridSize ocean, $steps steps")
+  val without = stepsPerSecond(record = false)
+  println(f"not recording: $without%10.1f steps/s")
+  val recording = stepsPerSecond(record = true)
+  println(f"recording:     $recording%10.1f steps/s (${100 * (1 - recording / without)}%.1f%% slower)")
+  println(f"file:          ${file.length / (2.0 * steps * numFishers)}%10.2f bytes per fisher per step")
+  val reader = new TrajectoryReader(file.toPath)
+  val start = System.nanoTime()
+  var read = 0
+  while (reader.next()) read += 1
+  val replay = read / ((System.nanoTime() - start) / 1e9)
+  reader.close()
+  println(f"replay:        $replay%10.1f steps/s (${replay / without}%.1fx the simulation)")
+  System.exit(0)
+}
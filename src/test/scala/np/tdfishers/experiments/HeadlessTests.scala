@@ -0,0 +1,21 @@
+package np.tdfishers.experiments
+
+import org.scalatest.FlatSpec
+
+class HeadlessSpec extends FlatSpec {
+
+  "Headless" should "read its options and the model's properties" in {
+    val options = Headless.parse(List("-runs", "3", "-sink", "csv", "numFishers=20", "-steps", "100", "holdSize=50"))
+    assert(options.runs === 3)
+    assert(options.steps === 100)
+    assert(options.sink === "csv")
+    assert(options.out === None)
+    assert(options.parameters === Seq("numFishers" -> "20", "holdSize" -> "50"))
+  }
+
+  it should "reject what it doesn't understand" in {
+    for (args <- Seq(List("-runs", "0"), List("-sink", "xml"), List("noSuchThing=1"), List("rewardDelayed=maybe"), List("-bogus")))
+      assertThrows[IllegalArgumentException](Headless.parse(args))
+  }
+
+}
@@ -0,0 +1,86 @@
+package np.tdfishers.experiments
+
+import np.tdfishers.model.TDFishers
+
+import org.scalatest.FlatSpec
+
+class RunnerSpec extends FlatSpec {
+
+  "Runner" should "derive a different seed for each run" in {
+    val seeds = (0 until 10000).map(Runner.seed(42L, _))
+    assert(seeds.distinct.size === seeds.size)
+    assert(Runner.seed(42L, 7) === Runner.seed(42L, 7))
+  }
+
+  it should "give the same results whatever the number of threads" in {
+    def results(threads: Int): Seq[Vector[Double]] =
+      Runner.parallel(4, 500, (tdf: TDFishers) => tdf.setNumFishers(20), 42L, threads) { _ =>
+        new Runner.Observer[Vector[Double]] {
+          var result = Vector.empty[Double]
+          def observe(tdf: TDFishers): Unit = result = tdf.ocean.toArray.toVector
+        }
+      }
+    val sequential = results(1)
+    assert(results(3) === sequential)
+  }
+
+  it should "stop runs early once the fishers have converged" in {
+    def steps(convergence: Option[Runner.Convergence]): Seq[Long] =
+      Runner.parallel(2, 5000, (tdf: TDFishers) => tdf.setNumFishers(20), 42L, 1, convergence) { _ =>
+        new Runner.Observer[Long] {
+          var result = 0L
+          def observe(tdf: TDFishers): Unit = {
+            result = tdf.schedule.getSteps
+            if (convergence.isDefined) assert(!tdf.getTdError.isNaN)
+          }
+        }
+      }
+    assert(steps(None) === Seq(5000L, 5000L))
+    // thresholds that are met from the start
+    val easy = Runner.Convergence(Double.MaxValue, 1.0, 100)
+    assert(steps(Some(easy)) === Seq(100L, 100L))
+    // and thresholds that are never met
+    val impossible = Runner.Convergence(-1.0, -1.0, 100)
+    assert(steps(Some(impossible)) === Seq(5000L, 5000L))
+  }
+
+  it should "stop a run when told to" in {
+    var steps = 0L
+    Runner.run(0, 5000, _.setNumFishers(20), 42L, None, stop = () => steps >= 123) { tdf =>
+      steps = tdf.schedule.getSteps
+    }
+    assert(steps === 123L)
+  }
+
+  it should "hand results over in order, and skip what's left once stopped" in {
+    val order = scala.collection.mutable.ArrayBuffer.empty[Int]
+    // the later jobs finish first
+    val squares = Runner.parallelJobs(6, 3, () => false, (i: Int, _: Int) => order += i) { i =>
+      Thread.sleep((6 - i) * 20)
+      i * i
+    }
+    assert(squares === Seq(0, 1, 4, 9, 16, 25))
+    assert(order === (0 until 6))
+    var stopping = false
+    val done = Runner.parallelJobs(6, 1, () => stopping, (_: Int, _: Int) => ()) { i =>
+      if (i == 2) stopping = true
+      i
+    }
+    assert(done === Seq(0, 1, 2))
+  }
+
+  it should "share the processors between the runs it does at once" in {
+    val processors = Runtime.getRuntime.availableProcessors
+    assert(Runner.threadsPerRun(1) === processors)
+    assert(Runner.threadsPerRun(processors) === 1)
+    assert(Runner.threadsPerRun(processors * 4) === 1)
+    val threads = Runner.parallel(4, 1, (tdf: TDFishers) => tdf.setNumFishers(1), 42L, 2) { _ =>
+      new Runner.Observer[Int] {
+        var result = 0
+        def observe(tdf: TDFishers): Unit = result = tdf.getThreads
+      }
+    }
+    assert(threads === Seq.fill(4)(Runner.threadsPerRun(2)))
+  }
+
+}
@@ -0,0 +1,75 @@
+package np.tdfishers.experiments
+
+import np.tdfishers.model.TDFishers
+
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.atomic.AtomicInteger
+
+import org.scalatest.FlatSpec
+
+class SweepSpec extends FlatSpec {
+
+  "Parameters" should "set properties by name, in their type" in {
+    val tdf = new TDFishers(1)
+    Parameters.set(tdf, Seq("numFishers" -> "12.0", "epsilon" -> "0.3", "rewardDelayed" -> "true"))
+    assert(tdf.getNumFishers === 12)
+    assert(tdf.getEpsilon === 0.3)
+    assert(tdf.isRewardDelayed)
+    assertThrows[IllegalArgumentException](Parameters.set(tdf, "nope", "1"))
+    assert(!Parameters.isDefined("seed") && !Parameters.isDefined("job"))
+  }
+
+  "A grid" should "have every combination of values" in {
+    val points = Sweep.Grid("epsilon" -> Seq(0.1, 0.2, 0.3), "rewardDelayed" -> Seq(true, false)).points
+    assert(points.size === 6)
+    assert(points.distinct.size === 6)
+    assert(points.head === Map("epsilon" -> "0.1", "rewardDelayed" -> "true"))
+  }
+
+  "A Latin hypercube" should "have one point in each interval of each range" in {
+    val design = Sweep.LatinHypercube(10, 42L, "alpha" -> (0.0, 1.0), "numFishers" -> (0.0, 1000.0))
+    val points = design.points
+    assert(points.size === 10)
+    assert(points.map(p => (p("alpha").toDouble * 10).toInt).sorted === (0 until 10))
+    assert(points.map(p => (p("numFishers").toInt / 100).min(9)).sorted === (0 until 10))
+    assert(points.forall(p => !p("numFishers").contains('.')))
+    assert(design.points === points)
+  }
+
+  "A sweep" should "only run what isn't cached yet" in {
+    val cache = Files.createTempDirectory("sweep").toFile
+    val runs = new AtomicInteger
+    def sweep(replications: Int, name: String = "test", columns: Seq[String] = Seq("biomass", "fishers")): Seq[Sweep.Result] = {
+      val design = Sweep.Grid("numFishers" -> Seq(5, 10), "epsilon" -> Seq(0.1, 0.5))
+      Sweep.run(name, design, replications, 100, 42L, cache, columns, threads = 2) { _ =>
+        runs.incrementAndGet()
+        new Runner.Observer[Array[Double]] {
+          var result: Array[Double] = _
+          def observe(tdf: TDFishers): Unit = result = Array(tdf.ocean.total, tdf.getNumFishers)
+        }
+      }
+    }
+    val first = sweep(2)
+    assert(runs.get === 8)
+    assert(first.map(_.values(1)) === Seq(5, 5, 5, 5, 10, 10, 10, 10))
+    // pretend a run got interrupted while being written
+    new File(cache, "junk.tmp").createNewFile()
+    val again = sweep(2)
+    assert(runs.get === 8)
+    assert(again.map(_.values.toSeq) === first.map(_.values.toSeq))
+    assert(!new File(cache, "junk.tmp").exists)
+    // more replications only run the new ones
+    val more = sweep(3)
+    assert(runs.get === 12)
+    assert(more.filter(_.replication < 2).map(_.values.toSeq) === first.map(_.values.toSeq))
+    // but another sweep, or other values, don't reuse any of them
+    sweep(1, name = "another test")
+    assert(runs.get === 16)
+    sweep(1, columns = Seq("total", "count"))
+    assert(runs.get === 20)
+    cache.listFiles.foreach(_.delete())
+    cache.delete()
+  }
+
+}
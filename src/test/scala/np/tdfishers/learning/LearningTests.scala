@@ -0,0 +1,238 @@
+package np.tdfishers.learning
+
+import ec.util.MersenneTwisterFast
+import java.util.function.DoubleSupplier
+
+import org.scalatest.FlatSpec
+
+import scala.collection.JavaConverters._
+
+class LearningSpec extends FlatSpec {
+
+  /**
+    A tiny corridor where the agent can go left, go right or stay put.
+    Staying put at the right end pays and sends the agent back to the start.
+  */
+  class Corridor(length: Int) {
+    var position = 0
+    private def move(d: Int): Double = {
+      position = math.max(0, math.min(length - 1, position + d))
+      -1.0
+    }
+    private def stay(): Double =
+      if (position == length - 1) { position = 0; 10.0 } else -0.5
+    val actions: List[DoubleSupplier] = List(
+      () => move(-1), () => stay(), () => move(1)
+    )
+  }
+
+  "IndexedLearning" should "learn the same action values as the generic Learning for the same seed" in {
+    val length = 6
+    val seed = 42L
+
+    val genericWorld = new Corridor(length)
+    val generic = new Learning[Integer](
+      (0 until length).map(Int.box).asJava, genericWorld.actions.asJava,
+      () => genericWorld.position, 0.1, 0.1, 0.9, new MersenneTwisterFast(seed))
+
+    val indexedWorld = new Corridor(length)
+    val table = new DenseQTable(length, indexedWorld.actions.size)
+    val indexed = new IndexedLearning(
+      table, indexedWorld.actions.asJava,
+      () => indexedWorld.position, 0.1, 0.1, 0.9, new MersenneTwisterFast(seed))
+
+    for (_ <- 1 to 10000) {
+      generic.act()
+      indexed.act()
+    }
+
+    assert(indexedWorld.position === genericWorld.position)
+    for {
+      s <- 0 until length
+      (a, i) <- genericWorld.actions.zipWithIndex
+    } assert(table.get(s, i) === generic.q(s, a))
+    // and make sure something was actually learned
+    assert(table.bestAction(length - 1) === 1)
+  }
+
+  "DenseQTable" should "break ties in favour of the first action" in {
+    val table = new DenseQTable(2, 3, 5.0)
+    assert(table.bestAction(0) === 0)
+    table.set(1, 2, 6.0)
+    table.set(1, 1, 6.0)
+    assert(table.bestAction(1) === 1)
+  }
+
+  "SparseQTable" should "only allocate rows for states that get written to" in {
+    val table = new SparseQTable(1000000, 9, 2.5)
+    assert(table.get(123456, 3) === 2.5)
+    assert(table.bestAction(999999) === 0)
+    assert(table.getRowsAllocated === 0)
+    table.set(123456, 3, 7.0)
+    table.set(123456, 4, 8.0)
+    assert(table.getRowsAllocated === 1)
+    assert(table.get(123456, 3) === 7.0)
+    assert(table.get(123456, 0) === 2.5)
+    assert(table.bestAction(123456) === 4)
+  }
+
+  it should "hold the same values as a DenseQTable" in {
+    val rng = new MersenneTwisterFast(7)
+    val sparse = new SparseQTable(5000, 9)
+    val dense = new DenseQTable(5000, 9)
+    for (_ <- 1 to 20000) {
+      val (s, a, v) = (rng.nextInt(2500) * 2, rng.nextInt(9), rng.nextDouble())
+      sparse.set(s, a, v)
+      dense.set(s, a, v)
+    }
+    assert(sparse.getRowsAllocated <= 2500)
+    for (s <- 0 until 5000) {
+      assert(sparse.bestAction(s) === dense.bestAction(s))
+      for (a <- 0 until 9) assert(sparse.get(s, a) === dense.get(s, a))
+    }
+  }
+
+  "SharedQTable" should "not lose updates made concurrently from many threads" in {
+    val (rate, target, updates, threads) = (1e-4, 1.0, 20000, 4)
+    val table = new SharedQTable(1, 1)
+    val workers = (1 to threads).map { _ =>
+      new Thread(() => for (_ <- 1 to updates) table.update(0, 0, rate, target))
+    }
+    workers.foreach(_.start())
+    workers.foreach(_.join())
+    // every update applies the same function, so the order doesn't matter
+    val reference = new DenseQTable(1, 1)
+    for (_ <- 1 to updates * threads) reference.update(0, 0, rate, target)
+    assert(table.get(0, 0) === reference.get(0, 0))
+  }
+
+  "TileCoder" should "activate one tile per tiling, shared between nearby points" in {
+    val coder = new TileCoder(8, 10, 10, 1)
+    def features(x: Double, y: Double, flag: Int): Set[Int] = {
+      val out = new Array[Int](8)
+      coder.getFeatures(Array(x, y, flag.toDouble), out, 0, 100)
+      out.toSet
+    }
+    val here = features(3.3, 4.2, 0)
+    assert(here.size === 8)
+    assert(here.forall(f => f >= 100 && f < 100 + coder.getNumFeatures))
+    assert((here intersect features(3.4, 4.2, 0)).size >= 6)
+    assert((here intersect features(7.5, 1.0, 0)).isEmpty)
+    assert((here intersect features(3.3, 4.2, 1)).isEmpty)
+  }
+
+  "TileCodingLearning" should "be the same as IndexedLearning with one feature per state" in {
+    val length = 6
+    val seed = 42L
+
+    val indexedWorld = new Corridor(length)
+    val table = new DenseQTable(length, indexedWorld.actions.size)
+    val indexed = new IndexedLearning(
+      table, indexedWorld.actions.asJava,
+      () => indexedWorld.position, 0.1, 0.1, 0.9, new MersenneTwisterFast(seed))
+
+    val tiledWorld = new Corridor(length)
+    val weights = new DenseQTable(length, tiledWorld.actions.size)
+    val tiled = new TileCodingLearning(
+      weights, tiledWorld.actions.asJava,
+      (features: Array[Int]) => features(0) = tiledWorld.position, 1,
+      0.1, 0.1, 0.9, 0.0, 0.01, false, new MersenneTwisterFast(seed))
+    assert(tiled.getTraceLength === 1)
+
+    for (_ <- 1 to 10000) {
+      indexed.act()
+      tiled.act()
+    }
+    for (s <- 0 until length; a <- 0 until 3) assert(weights.get(s, a) === table.get(s, a))
+  }
+
+  it should "learn faster with eligibility traces" in {
+    val length = 20
+    def rewardAfter(lambda: Double, steps: Int): Double = {
+      val world = new Corridor(length)
+      var total = 0.0
+      val actions = world.actions.map(action => (() => {
+        val reward = action.getAsDouble
+        total += reward
+        reward
+      }): DoubleSupplier)
+      val learning = new TileCodingLearning(
+        new DenseQTable(length, 3), actions.asJava,
+        (features: Array[Int]) => features(0) = world.position, 1,
+        0.05, 0.1, 0.95, lambda, 0.01, false, new MersenneTwisterFast(1))
+      for (_ <- 1 to steps) learning.act()
+      total
+    }
+    assert(rewardAfter(0.9, 3000) > rewardAfter(0.0, 3000))
+  }
+
+  "EligibilityTraces" should "credit earlier steps less and less" in {
+    val traces = new EligibilityTraces(1, 0.5, 0.1, false)
+    assert(traces.getLength === 4) // 1, 0.5, 0.25 and 0.125 are above the cutoff
+    for (s <- 0 until 6) { traces.next()(0) = s; traces.visit(0) }
+    val table = new DenseQTable(6, 1)
+    traces.apply(table, 1.0)
+    assert((0 until 6).map(table.get(_, 0)) === Seq(0.0, 0.0, 0.125, 0.25, 0.5, 1.0))
+  }
+
+  it should "only count the latest visit of a value when replacing" in {
+    def credit(replacing: Boolean): Double = {
+      val traces = new EligibilityTraces(1, 0.5, 0.1, replacing)
+      for (s <- Seq(7, 3, 7)) { traces.next()(0) = s; traces.visit(1) }
+      val table = new DenseQTable(8, 2)
+      traces.apply(table, 1.0)
+      table.get(7, 1)
+    }
+    assert(credit(replacing = false) === 1.25)
+    assert(credit(replacing = true) === 1.0)
+  }
+
+  "IndexedLearning" should "learn faster with eligibility traces" in {
+    val length = 20
+    def rewardAfter(lambda: Double, replacing: Boolean, steps: Int): Double = {
+      val world = new Corridor(length)
+      var total = 0.0
+      val actions = world.actions.map(action => (() => {
+        val reward = action.getAsDouble
+        total += reward
+        reward
+      }): DoubleSupplier)
+      val learning = new IndexedLearning(
+        new DenseQTable(length, 3), actions.asJava, () => world.position,
+        0.05, 0.1, 0.95, lambda, 0.01, replacing, new MersenneTwisterFast(1))
+      for (_ <- 1 to steps) learning.act()
+      total
+    }
+    val oneStep = rewardAfter(0.0, replacing = false, 3000)
+    assert(rewardAfter(0.9, replacing = false, 3000) > oneStep)
+    assert(rewardAfter(0.9, replacing = true, 3000) > oneStep)
+  }
+
+  "ConvergenceStats" should "keep moving averages of TD errors and policy changes" in {
+    val stats = new ConvergenceStats(4)
+    assert(stats.getTdError.isNaN)
+    stats.record(-2.0, true)
+    assert((stats.getTdError, stats.getPolicyChangeRate) === ((2.0, 1.0)))
+    stats.record(0.0, false)
+    assert((stats.getTdError, stats.getPolicyChangeRate) === ((1.5, 0.75)))
+  }
+
+  it should "not change what a learner learns, and go down as it does" in {
+    val length = 6
+    def learn(stats: ConvergenceStats): DenseQTable = {
+      val world = new Corridor(length)
+      val table = new DenseQTable(length, world.actions.size)
+      val learning = new IndexedLearning(
+        table, world.actions.asJava,
+        () => world.position, 0.1, 0.1, 0.9, new MersenneTwisterFast(42))
+      learning.setConvergenceStats(stats)
+      for (_ <- 1 to 20000) learning.act()
+      table
+    }
+    val stats = new ConvergenceStats(1000)
+    val (watched, unwatched) = (learn(stats), learn(null))
+    for (s <- 0 until length; a <- 0 until 3) assert(watched.get(s, a) === unwatched.get(s, a))
+    assert(stats.getPolicyChangeRate < 0.01)
+  }
+
+}
@@ -0,0 +1,46 @@
+package np.tdfishers.model
+
+import org.scalatest.FlatSpec
+
+import scala.collection.JavaConverters._
+
+class BatchEngineSpec extends FlatSpec {
+
+  // a few simulations that are different in all sorts of ways
+  def simulations(): Seq[TDFishers] = Seq(
+    { val tdf = new TDFishers(1L); tdf.setGridWidth(12); tdf.setGridHeight(8); tdf },
+    { val tdf = new TDFishers(2L); tdf.setNumFishers(30); tdf.setFleetLearning(true); tdf.setRewardDelayed(false); tdf },
+    { val tdf = new TDFishers(3L); tdf.setLazyQTables(true); tdf.setSynchronousDiffusion(false); tdf.setHoldSize(20); tdf },
+    { val tdf = new TDFishers(4L); tdf.setTileCoding(true); tdf.setLambda(0.8); tdf.setTrackConvergence(true); tdf }
+  ).map { tdf => tdf.setParallelStepping(true); tdf }
+
+  def state(tdf: TDFishers): (Vector[Double], Vector[(Int, Int, Double)]) =
+    (tdf.ocean.toArray.toVector,
+      tdf.fishers.asScala.map(f => (f.getX, f.getY, f.getFishCarried)).toVector)
+
+  "BatchEngine" should "give the same results as stepping each simulation on its own" in {
+    val steps = TDFishers.YEAR.toInt + 100 // so that fish grow at least once after the start
+    val expected = simulations().map { tdf =>
+      tdf.setThreads(1)
+      tdf.start()
+      for (_ <- 1 to steps) tdf.schedule.step(tdf)
+      tdf.finish()
+      state(tdf)
+    }
+    for (threads <- Seq(1, 3)) {
+      val engine = new BatchEngine(simulations().asJava, threads)
+      engine.run(steps - 100)
+      for (_ <- 1 to 100) engine.step()
+      val actual = (0 until engine.getNumSimulations).map(k => state(engine.sync(k)))
+      assert(engine.sync(0).schedule.getSteps === steps)
+      engine.finish()
+      assert(actual === expected)
+    }
+  }
+
+  it should "refuse simulations that don't step their fishers in parallel" in {
+    val tdf = new TDFishers(1L)
+    assertThrows[IllegalArgumentException] { new BatchEngine(Seq(tdf).asJava, 1) }
+  }
+
+}
@@ -0,0 +1,85 @@
+package np.tdfishers.model
+
+import java.nio.file.Files
+
+class CheckpointSpec extends org.scalatest.FlatSpec {
+
+  def newModel(lazyQTables: Boolean, fleetLearning: Boolean, tileCoding: Boolean = false): TDFishers = {
+    val tdf = new TDFishers(42L)
+    tdf.setNumFishers(20)
+    tdf.setParallelStepping(true)
+    tdf.setThreads(2)
+    tdf.setLazyQTables(lazyQTables)
+    tdf.setFleetLearning(fleetLearning)
+    tdf.setTileCoding(tileCoding)
+    tdf
+  }
+
+  def state(tdf: TDFishers): (Double, Long, Vector[Double], Vector[(Double, Int)]) =
+    (tdf.schedule.getTime, tdf.schedule.getSteps, tdf.ocean.toArray.toVector,
+      (0 until tdf.fishers.size).map { i =>
+        val fisher = tdf.fishers.get(i)
+        (fisher.getFishCarried, fisher.getStateIndex)
+      }.toVector)
+
+  def resumeAndCompare(lazyQTables: Boolean, fleetLearning: Boolean, tileCoding: Boolean = false): Unit = {
+    val file = Files.createTempFile("tdfishers", ".checkpoint")
+    try {
+      val original = newModel(lazyQTables, fleetLearning, tileCoding)
+      original.start()
+      for (_ <- 1 to 1000) original.schedule.step(original)
+      Checkpoint.save(original, file)
+
+      // the restored model gets its structure from the checkpoint
+      val restored = new TDFishers(7L)
+      restored.setThreads(2)
+      Checkpoint.restore(restored, file)
+      assert(restored.getNumFishers === 20)
+      assert(restored.isLazyQTables === lazyQTables)
+      assert(state(restored) === state(original))
+
+      for (_ <- 1 to 1000) {
+        original.schedule.step(original)
+        restored.schedule.step(restored)
+      }
+      assert(state(restored) === state(original))
+      val q1 = original.fishers.get(0).getQTable
+      val q2 = restored.fishers.get(0).getQTable
+      for (s <- 0 until q1.getNumStates; a <- 0 until q1.getNumActions)
+        assert(q1.get(s, a) === q2.get(s, a))
+      original.finish()
+      restored.finish()
+    } finally Files.delete(file)
+  }
+
+  "A restored simulation" should "carry on exactly as the original one" in {
+    resumeAndCompare(lazyQTables = false, fleetLearning = false)
+  }
+
+  it should "carry on exactly as the original one with lazy Q-tables" in {
+    resumeAndCompare(lazyQTables = true, fleetLearning = false)
+  }
+
+  it should "carry on exactly as the original one when learning as a fleet" in {
+    resumeAndCompare(lazyQTables = false, fleetLearning = true)
+  }
+
+  it should "carry on exactly as the original one with tile coding" in {
+    resumeAndCompare(lazyQTables = true, fleetLearning = false, tileCoding = true)
+  }
+
+  it should "refuse a checkpoint from an older version" in {
+    val file = Files.createTempFile("tdfishers", ".checkpoint")
+    try {
+      val tdf = newModel(lazyQTables = false, fleetLearning = false)
+      tdf.start()
+      Checkpoint.save(tdf, file)
+      tdf.finish()
+      val bytes = Files.readAllBytes(file)
+      bytes(4) = 2 // the version, little-endian, right after the magic number
+      Files.write(file, bytes)
+      assertThrows[java.io.IOException](Checkpoint.restore(new TDFishers(7L), file))
+    } finally Files.delete(file)
+  }
+
+}
@@ -1,5 +1,8 @@
 package np.tdfishers.model
 
+import ec.util.MersenneTwisterFast
+import java.util.concurrent.ForkJoinPool
+
 import org.scalatest.FlatSpec
 
 class DiffuserSpec extends FlatSpec {
@@ -22,4 +25,46 @@ class DiffuserSpec extends FlatSpec {
     ))
   }
 
+  def randomOcean(width: Int, height: Int, seed: Long): Array[Array[Double]] = {
+    val rng = new MersenneTwisterFast(seed)
+    Array.fill(width, height)(rng.nextDouble() * 5000.0)
+  }
+
+  it should "move fish synchronously, without directional bias" in {
+    val a = Array(
+      Array(1.0, 0.0),
+      Array(0.0, 0.0)
+    )
+    val b = Array.fill(2, 2)(-1.0)
+    Diffuser.diffuseAllSynchronously(0.25, a, b)
+    assert(b === Array(
+      Array(0.50, 0.25),
+      Array(0.25, 0.00)
+    ))
+  }
+
+  it should "conserve the total biomass when diffusing synchronously" in {
+    var a = randomOcean(50, 40, 1)
+    var b = Array.ofDim[Double](50, 40)
+    val total = a.map(_.sum).sum
+    for (_ <- 1 to 100) {
+      Diffuser.diffuseAllSynchronously(0.1, a, b)
+      val tmp = a; a = b; b = tmp
+    }
+    assert(math.abs(a.map(_.sum).sum - total) <= total * 1e-12)
+  }
+
+  it should "give the same results whatever the number of threads" in {
+    val a = randomOcean(201, 150, 2)
+    val expected = Array.ofDim[Double](201, 150)
+    Diffuser.diffuseAllSynchronously(0.1, a, expected)
+    for (threads <- List(1, 2, 3, 8)) {
+      val pool = new ForkJoinPool(threads)
+      val b = Array.ofDim[Double](201, 150)
+      Diffuser.diffuseAllSynchronously(0.1, a, b, pool)
+      pool.shutdown()
+      assert(b === expected)
+    }
+  }
+
 }
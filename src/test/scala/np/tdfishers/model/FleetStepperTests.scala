@@ -0,0 +1,27 @@
+package np.tdfishers.model
+
+import org.scalatest.FlatSpec
+
+class FleetStepperSpec extends FlatSpec {
+
+  def run(threads: Int, fleetLearning: Boolean): (Vector[Double], Vector[Double]) = {
+    val tdf = new TDFishers(123L)
+    tdf.setNumFishers(50)
+    tdf.setParallelStepping(true)
+    tdf.setThreads(threads)
+    tdf.setFleetLearning(fleetLearning)
+    tdf.start()
+    for (_ <- 1 to 3000) tdf.schedule.step(tdf)
+    tdf.finish()
+    (tdf.ocean.toArray.toVector, (0 until 50).map(tdf.fishers.get(_).getFishCarried).toVector)
+  }
+
+  "FleetStepper" should "give the same results whatever the number of threads" in {
+    assert(run(1, fleetLearning = false) === run(4, fleetLearning = false))
+  }
+
+  it should "give the same results whatever the number of threads when learning as a fleet" in {
+    assert(run(1, fleetLearning = true) === run(4, fleetLearning = true))
+  }
+
+}
@@ -0,0 +1,40 @@
+package np.tdfishers.model
+
+import org.scalatest.FlatSpec
+
+class FleetSpec extends FlatSpec {
+
+  "The fishers' grid" should "match the fleet once synced" in {
+    val tdf = new TDFishers(42L)
+    tdf.setNumFishers(30)
+    tdf.start()
+    for (_ <- 1 to 500) tdf.schedule.step(tdf)
+    tdf.syncFishersGrid()
+    for (id <- 0 until 30) {
+      val fisher = tdf.fishers.get(id)
+      val loc = tdf.fishersGrid.getObjectLocation(fisher)
+      assert(fisher.getId === id)
+      assert((loc.x, loc.y) === (tdf.fleet.getX(id), tdf.fleet.getY(id)))
+      assert(fisher.isAtPort === (loc.x == tdf.portLocation.x && loc.y == tdf.portLocation.y))
+    }
+  }
+
+  "A fisher" should "stay on the grid, and only empty its hold at port" in {
+    val tdf = new TDFishers(42L)
+    tdf.setNumFishers(1)
+    tdf.start()
+    val fisher = tdf.fishers.get(0)
+    val (moveRight, moveLeft) = (5, 3)
+    fisher.perform(moveRight) // the port is on the east edge
+    assert((fisher.getX, fisher.getY) === (tdf.portLocation.x, tdf.portLocation.y))
+    assert(fisher.isAtPort)
+    fisher.perform(moveLeft)
+    assert(!fisher.isAtPort)
+    fisher.perform(Fisher.STAY_PUT) // trawling
+    assert(fisher.getFishCarried > 0.0)
+    fisher.perform(moveRight)
+    fisher.perform(Fisher.STAY_PUT) // emptying the hold
+    assert(fisher.getFishCarried === 0.0)
+  }
+
+}
@@ -0,0 +1,53 @@
+package np.tdfishers.model
+
+import ec.util.MersenneTwisterFast
+
+import org.scalatest.FlatSpec
+
+class OceanSpec extends FlatSpec {
+
+  def randomField(width: Int, height: Int): Array[Array[Double]] = {
+    val rng = new MersenneTwisterFast(3)
+    Array.fill(width, height)(rng.nextDouble() * 5000.0)
+  }
+
+  "Ocean" should "store cells row after row" in {
+    val ocean = new Ocean(3, 2, 0.0)
+    ocean.set(2, 1, 1.0)
+    assert(ocean.index(2, 1) === 5)
+    assert(ocean.toArray === Array(0.0, 0.0, 0.0, 0.0, 0.0, 1.0))
+  }
+
+  it should "diffuse the old way exactly like Diffuser.diffuseAll" in {
+    val field = randomField(7, 5)
+    val ocean = Ocean.of(field)
+    Diffuser.diffuseAll(0.1, field)
+    ocean.diffuseSequentially(0.1)
+    val copy = Array.ofDim[Double](7, 5)
+    ocean.copyTo(copy)
+    assert(copy === field)
+  }
+
+  it should "grow fish in the same sweep as it diffuses them" in {
+    val (m, r, k) = (0.1, 0.7, 5000.0)
+    val fused = Ocean.of(randomField(9, 4))
+    val separate = Ocean.of(randomField(9, 4))
+    fused.diffuse(m, true, r, k, null)
+    separate.diffuse(m, null)
+    separate.grow(r, k)
+    assert(fused.toArray === separate.toArray)
+  }
+
+  it should "give the same results off-heap" in {
+    val field = randomField(6, 8)
+    val onHeap = Ocean.of(field)
+    val offHeap = new Ocean(6, 8, 0.0, true)
+    for (x <- 0 until 6; y <- 0 until 8) offHeap.set(x, y, field(x)(y))
+    for (_ <- 1 to 10) {
+      onHeap.diffuse(0.1, true, 0.7, 5000.0, null)
+      offHeap.diffuse(0.1, true, 0.7, 5000.0, null)
+    }
+    assert(offHeap.toArray === onHeap.toArray)
+  }
+
+}
@@ -0,0 +1,32 @@
+package np.tdfishers.model
+
+import org.scalatest.FlatSpec
+
+class RandomStreamsSpec extends FlatSpec {
+
+  "RandomStreams" should "give each fisher a stream that only depends on the seed and its id" in {
+    def firstDraws(numFishers: Int, parallel: Boolean): Seq[Long] = {
+      val tdf = new TDFishers(123L)
+      tdf.setNumFishers(numFishers)
+      tdf.setParallelStepping(parallel)
+      tdf.start()
+      (0 until 10).map(tdf.fishers.get(_).getLearning.getRng.nextLong)
+    }
+    val expected = firstDraws(10, parallel = false)
+    assert(firstDraws(40, parallel = true) === expected)
+    assert(expected.distinct.size === 10)
+    // the learners have drawn their first action from it, and nothing else
+    val stream = RandomStreams.generator(123L, 3)
+    stream.nextInt(Fisher.DELTA_X.length)
+    assert(expected(3) === stream.nextLong)
+  }
+
+  it should "derive unrelated seeds for consecutive streams" in {
+    val seeds = (0 until 100000).map(RandomStreams.seed(42L, _))
+    assert(seeds.distinct.size === seeds.size)
+    // about half the bits should differ between neighbouring streams
+    val flipped = seeds.sliding(2).map { case Seq(a, b) => java.lang.Long.bitCount(a ^ b) }.sum
+    assert(math.abs(flipped.toDouble / (seeds.size - 1) - 32.0) < 0.5)
+  }
+
+}
@@ -0,0 +1,218 @@
+package np.tdfishers.observation
+
+import ec.util.MersenneTwisterFast
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.StringWriter
+import java.nio.file.Files
+
+import np.tdfishers.model.TDFishers
+
+import org.scalatest.FlatSpec
+
+class ObservationSpec extends FlatSpec {
+
+  "RunningStats" should "compute the same statistics as a two-pass computation" in {
+    val rng = new MersenneTwisterFast(1)
+    val values = Vector.fill(1000)(1e6 + rng.nextDouble())
+    val stats = new RunningStats
+    values.foreach(stats.add)
+    val mean = values.sum / values.size
+    val variance = values.map(v => (v - mean) * (v - mean)).sum / (values.size - 1)
+    assert(stats.getCount === 1000)
+    assert(math.abs(stats.getMean - mean) < mean * 1e-14)
+    assert(math.abs(stats.getVariance - variance) < variance * 1e-6)
+    assert(stats.getMin === values.min)
+    assert(stats.getMax === values.max)
+  }
+
+  it should "have no mean when empty" in {
+    assert((new RunningStats).getMean.isNaN)
+  }
+
+  "QuantileSketch" should "estimate quantiles of a large stream" in {
+    val rng = new MersenneTwisterFast(2)
+    val median = new QuantileSketch(0.5)
+    val ninetieth = new QuantileSketch(0.9)
+    for (_ <- 1 to 100000) {
+      val v = rng.nextDouble() * 100.0
+      median.add(v)
+      ninetieth.add(v)
+    }
+    assert(math.abs(median.getEstimate - 50.0) < 1.0)
+    assert(math.abs(ninetieth.getEstimate - 90.0) < 1.0)
+  }
+
+  it should "be exact for a handful of values" in {
+    val median = new QuantileSketch(0.5)
+    List(3.0, 1.0, 2.0).foreach(median.add)
+    assert(median.getEstimate === 2.0)
+  }
+
+  "BinarySink" should "write the same samples as CsvSink" in {
+    val samples = new SampleBuffer("a", "b")
+    for (step <- 1 to 200) samples.add(step, Array(step * 0.5, -step.toDouble))
+    val csv = new StringWriter
+    val csvSink = new CsvSink(csv, "series", "a", "b")
+    csvSink.write("x", samples)
+    csvSink.write("y", samples)
+    csvSink.flush()
+    val bytes = new ByteArrayOutputStream
+    val binarySink = new BinarySink(bytes, "a", "b")
+    binarySink.write("x", samples)
+    binarySink.write("y", samples)
+    binarySink.close()
+    val converted = new StringWriter
+    BinarySink.toCsv(new ByteArrayInputStream(bytes.toByteArray), "series", converted)
+    assert(converted.toString === csv.toString)
+    assert(csv.toString.startsWith("series,step,a,b\nx,1,0.5,-1.0\n"))
+  }
+
+  "JsonSink" should "write a JSON object per sample" in {
+    val samples = new SampleBuffer("a", "b")
+    samples.add(1, Array(0.5, Double.NaN))
+    samples.add(2, Array(1.0, 2.0))
+    val json = new StringWriter
+    val sink = new JsonSink(json, "series")
+    sink.write("x", samples)
+    sink.flush()
+    assert(json.toString ===
+      "{\"series\":\"x\",\"step\":1,\"a\":0.5,\"b\":null}\n" +
+      "{\"series\":\"x\",\"step\":2,\"a\":1.0,\"b\":2.0}\n")
+  }
+
+  "SummarySink" should "keep the last sample of each series" in {
+    val samples = new SampleBuffer("a")
+    samples.add(1, Array(1.0))
+    samples.add(2, Array(3.0))
+    val text = new StringWriter
+    val sink = new SummarySink(text, "series", "a")
+    sink.write("x", samples)
+    samples.add(3, Array(5.0))
+    sink.write("y", samples)
+    sink.close()
+    val lines = text.toString.split("\n").map(_.trim.split(" +").toSeq)
+    assert(lines(0) === Seq("series", "step", "a"))
+    assert(lines(1) === Seq("x", "2", "3.00000"))
+    assert(lines(2) === Seq("y", "3", "5.00000"))
+    assert(lines(3) === Seq("mean", "4.00000"))
+    assert(lines.length === 7)
+  }
+
+  def withMetrics(steps: Int, init: TDFishers => Unit): TDFishers = {
+    val tdf = new TDFishers(3)
+    tdf.setCollectMetrics(true)
+    tdf.setMetricsInterval(10)
+    init(tdf)
+    tdf.start()
+    for (_ <- 1 to steps) tdf.schedule.step(tdf)
+    tdf
+  }
+
+  "Metrics" should "count every action, sequentially or in parallel" in {
+    for (parallel <- Seq(false, true)) {
+      val tdf = withMetrics(500, _.setParallelStepping(parallel))
+      val metrics = tdf.getMetrics
+      val actions = metrics.getMoves + metrics.getTrawls + metrics.getHoldEmpties
+      assert(actions === 500L * tdf.getNumFishers)
+      assert(metrics.getSampledSteps === 50)
+      assert(metrics.getFishersMillisPerStep > 0.0)
+      assert(math.abs(metrics.getExplorationRate - tdf.getEpsilon) < 0.02)
+      assert(metrics.getQTableRows === tdf.getQTableRowsAllocated)
+      tdf.finish()
+    }
+  }
+
+  it should "time diffusion and growth every time they happen" in {
+    // with a sample every 10 steps, only one day in 5 would be sampled
+    val tdf = withMetrics(500, _.setSynchronousDiffusion(false))
+    val metrics = tdf.getMetrics
+    assert(metrics.getRuns(Metrics.Phase.FISHERS) === 50)
+    assert(metrics.getRuns(Metrics.Phase.DIFFUSION) === 21) // steps 0, 24, ..., 480
+    assert(metrics.getRuns(Metrics.Phase.GROWTH) === 1)
+    assert(metrics.getDiffusionMillisPerStep > 0.0)
+    assert(metrics.getGrowthMillisPerStep > 0.0)
+    tdf.finish()
+  }
+
+  it should "not change what happens in the simulation" in {
+    def biomass(tdf: TDFishers) = { tdf.syncOceanGrid(); tdf.oceanGrid.field.map(_.sum).sum }
+    val withThem = withMetrics(500, _ => ())
+    val without = withMetrics(500, _.setCollectMetrics(false))
+    assert(without.getMetrics === null)
+    assert(biomass(withThem) === biomass(without))
+  }
+
+  it should "be written to a file every sampled step" in {
+    for (extension <- Seq(".csv", ".json")) {
+      val file = File.createTempFile("metrics", extension)
+      file.deleteOnExit()
+      val tdf = withMetrics(100, _.setMetricsFile(file.getPath))
+      tdf.finish()
+      val lines = Files.readAllLines(file.toPath)
+      if (extension == ".csv") {
+        assert(lines.get(0).startsWith("seed,step,fishers_ms,"))
+        assert(lines.size === 11) // the header, 9 sampled steps and the end
+      } else {
+        assert(lines.get(0).startsWith("{\"seed\":\"3\",\"step\":10,\"fishers_ms\":"))
+        assert(lines.size === 10)
+      }
+    }
+  }
+
+  "TrajectoryReader" should "read back exactly what was recorded" in {
+    val file = File.createTempFile("trajectory", ".bin")
+    file.deleteOnExit()
+    val tdf = new TDFishers(4)
+    tdf.setNumFishers(30)
+    tdf.setTrajectoryFile(file.getPath)
+    tdf.setTrajectoryOceanInterval(50)
+    tdf.start()
+    val recorded = (0 until 300).map { _ =>
+      tdf.schedule.step(tdf)
+      val fishers = (0 until 30).map(id => (tdf.fleet.getX(id), tdf.fleet.getY(id), tdf.fleet.getFishCarried(id)))
+      (fishers, tdf.ocean.toArray.toVector)
+    }
+    tdf.finish()
+
+    val reader = new TrajectoryReader(file.toPath)
+    assert(reader.getNumFishers === 30)
+    for (((fishers, ocean), step) <- recorded.zipWithIndex) {
+      assert(reader.next())
+      assert(reader.getStep === step)
+      assert((0 until 30).map(id => (reader.getX(id), reader.getY(id), reader.getFishCarried(id))) === fishers)
+      if (step % 50 == 0) {
+        assert(reader.getOceanStep === step)
+        assert((0 until ocean.size).map(reader.getBiomass) === ocean)
+      }
+    }
+    assert(!reader.next())
+    reader.close()
+  }
+
+  it should "replay a trajectory in a simulation" in {
+    val file = File.createTempFile("trajectory", ".bin")
+    file.deleteOnExit()
+    val recorded = new TDFishers(5)
+    recorded.setNumFishers(10)
+    recorded.setTrajectoryFile(file.getPath)
+    recorded.setTrajectoryOceanInterval(1)
+    recorded.start()
+    for (_ <- 1 to 100) recorded.schedule.step(recorded)
+    recorded.finish()
+
+    val reader = new TrajectoryReader(file.toPath)
+    val replayed = new TDFishers(6)
+    reader.configure(replayed)
+    replayed.start()
+    replayed.schedule.clear()
+    replayed.schedule.scheduleRepeating(0.0, 0, reader, 1.0)
+    for (_ <- 1 to 100) replayed.schedule.step(replayed)
+    assert((0 until 10).map(replayed.fleet.getX) === (0 until 10).map(recorded.fleet.getX))
+    assert((0 until 10).map(replayed.fleet.getY) === (0 until 10).map(recorded.fleet.getY))
+    assert(replayed.ocean.toArray.toSeq === recorded.ocean.toArray.toSeq)
+    reader.close()
+  }
+
+}